@@ -0,0 +1,72 @@
+package weka.clusterers;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Factory for the thread pools that call the ants of the ant clusterers.
+ * <p>
+ * When every ant runs in its own thread, there can be hundreds of thousands
+ * of threads. Virtual threads make this affordable, so they are used when the
+ * Java runtime provides them. The clusterers are compiled for older runtimes
+ * as well, therefore virtual threads are looked up by reflection. On older
+ * runtimes a {@linkplain ForkJoinPool} with a fixed number of threads runs the
+ * ants instead.
+ * 
+ * @version 0.9
+ * @author Christoph
+ */
+public class AntExecutors {
+	
+	/** Factory method of {@link java.util.concurrent.Executors} for virtual threads, or null when the runtime has no virtual threads. */
+	protected static final Method virtualThreadPerTaskExecutor = findVirtualThreadPerTaskExecutor();
+	
+	
+	/**
+	 * Looks up the factory method for virtual threads.
+	 * 
+	 * @return the method, or null if the runtime has no virtual threads.
+	 */
+	protected static Method findVirtualThreadPerTaskExecutor() {
+		try {
+			return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		}
+		catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * Tells if the Java runtime provides virtual threads.
+	 * 
+	 * @return true, if {@link #newAntThreadExecutor(int)} runs each task in
+	 *         its own virtual thread.
+	 */
+	public static boolean supportsVirtualThreads() {
+		return virtualThreadPerTaskExecutor instanceof Method;
+	}
+	
+	
+	/**
+	 * Creates a thread pool for running one task per ant. Each task runs in its
+	 * own virtual thread if the runtime supports it, otherwise the tasks share
+	 * {@code slots} threads.
+	 * 
+	 * @param slots number of threads when there are no virtual threads
+	 * @return the thread pool, it must be shut down by the caller.
+	 */
+	public static ExecutorService newAntThreadExecutor(int slots) {
+		if (supportsVirtualThreads()) {
+			try {
+				return (ExecutorService) virtualThreadPerTaskExecutor.invoke(null);
+			}
+			catch (Exception e) { //Fall back to platform threads.
+			}
+		}
+		return new ForkJoinPool(Math.max(1, slots));
+	}
+	
+}
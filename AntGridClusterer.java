@@ -3,10 +3,13 @@ package weka.clusterers;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.PriorityQueue;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
@@ -51,12 +54,24 @@ import weka.core.Utils;
  * <pre> -comp &lt;type&gt;
  *  This setting specifies how clusters are compared. Clusters that are regarded
  *  as most similar by this comparison method are merged until the requirement
- *  of maximum number of clusters in the result is met.</pre>
+ *  of maximum number of clusters in the result is met. Possible types are
+ *  centroid, single, complete, average and ward.
+ *  (default = centroid)</pre>
  * 
  * <pre> -dist &lt;classname and options&gt;
  *  Distance function that is used for instance comparison according to the
  *  attributes of the instances.
  *  (default = weka.core.EuclideanDistance)</pre>
+ * 
+ * <pre> -es &lt;num&gt;
+ *  Number of execution slots. How many threads label the tiles of the grid
+ *  when searching the clusters.
+ *  (default = 1)</pre>
+ * 
+ * <pre> -sg
+ *  Store the grid surface sparsely. The grid surface is stored in tiles of 64 x
+ *  64 grid cells, that are only allocated where instances are.
+ *  (default = false)</pre>
  *  
  * <!-- options-end -->
  * 
@@ -71,7 +86,30 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 	/** Tag list. */
 	public static final int tag_compareModeCentroid = 0;
 	public static final String tag_compareModeCentroidLabel = "centroid";
-	static final Tag[] tags = { new Tag(tag_compareModeCentroid, tag_compareModeCentroidLabel) };
+	public static final int tag_compareModeSingle = 1;
+	public static final String tag_compareModeSingleLabel = "single";
+	public static final int tag_compareModeComplete = 2;
+	public static final String tag_compareModeCompleteLabel = "complete";
+	public static final int tag_compareModeAverage = 3;
+	public static final String tag_compareModeAverageLabel = "average";
+	public static final int tag_compareModeWard = 4;
+	public static final String tag_compareModeWardLabel = "ward";
+	static final Tag[] tags = { new Tag(tag_compareModeCentroid, tag_compareModeCentroidLabel), new Tag(tag_compareModeSingle, tag_compareModeSingleLabel), new Tag(tag_compareModeComplete, tag_compareModeCompleteLabel), new Tag(tag_compareModeAverage, tag_compareModeAverageLabel), new Tag(tag_compareModeWard, tag_compareModeWardLabel) };
+	
+	/** Offsets on the x axis of the cells around a cell searched for cluster members. The first four are above, below, left and right, the last four are diagonal. */
+	static final int[] neighborOffsetsX = { 0, 0, -1, 1, -1, 1, -1, 1 };
+	
+	/** Offsets on the y axis of the cells around a cell searched for cluster members, belonging to {@link #neighborOffsetsX}. */
+	static final int[] neighborOffsetsY = { 1, -1, 0, 0, 1, 1, -1, -1 };
+	
+	/** Width and height of the tiles in grid cells, that are labeled in parallel when searching the clusters. */
+	static final int labelTileSize = 256;
+	
+	/** Width and height of the tiles of a sparse grid surface in grid cells, a power of two. */
+	static final int sparseSurfaceTileSize = 64;
+	
+	/** Binary logarithm of {@link #sparseSurfaceTileSize}. */
+	static final int sparseSurfaceTileShift = 6;
 	
 	/** Search also in cells diagonal to the current one for cluster members. */
 	protected boolean optn_alsoDiagonalNeighborsForClusterSearch = false; //-di
@@ -85,21 +123,30 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 	/**
 	 * Compare mode to use for cluster comparison.
 	 * <p>
-	 * In the current implementation there is only one cluster compare mode
-	 * available. This setting is here to give the user a choice later, if more
-	 * are added.
+	 * Clusters can be compared by the distance of their centroids, by the
+	 * smallest, largest or mean distance of their members (single-link,
+	 * complete-link, average-link) or by the Ward criterion.
 	 */
 	protected int optn_clusterCompareMode = tag_compareModeCentroid; //-comp
 	
 	/** The distance function used for determining the distance between instances. */
 	protected DistanceFunction optn_distanceFunction = new EuclideanDistance(); //-dist
 	
+	/** Number of threads labeling the tiles of the grid when searching the clusters. The result does not depend on it. */
+	protected int optn_numExecutionSlots = 1; //-es
+	
+	/** Store the grid surface in tiles, that are only allocated where instances are. This saves memory on large, sparsely populated grids. */
+	protected boolean optn_sparseSurface = false; //-sg
+	
 	/** Instances data to be clustered. */
 	protected InstancesOnAntGrid data = null; //It must not be altered after the instances were read!
 	
 	/** The normal instances without grid position information. */
 	protected Instances data2;
 	
+	/** Normalized attribute values of {@link #data} for fast distance calculation, or null when the distance function is not supported. */
+	protected FeatureMatrix featureMatrix = null;
+	
 	/** Clustering results. */
 	protected int[] out_clusterAssignments = null;
 	
@@ -322,6 +369,78 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 	}
 	
 	
+	/**
+	 * Tip text provider for the number of execution slots setting.
+	 * 
+	 * @return Text that briefly describes the number of execution slots
+	 *         setting.
+	 */
+	public String numExecutionSlotsTipText() {
+		return "How many threads label the tiles of the grid when searching the clusters, set to 1 to label the grid sequentially.";
+	}
+	
+	
+	/**
+	 * Sets the number of threads that label the tiles of the grid.
+	 * 
+	 * @param value number of execution slots
+	 * @throws IllegalArgumentException if {@code value} is smaller than 1 and
+	 *         debug mode is activated.
+	 */
+	public void setNumExecutionSlots(int value) throws IllegalArgumentException {
+		if (value < 1) {
+			if (m_Debug) {
+				throw new IllegalArgumentException("The number of execution slots must be a positive integer value.");
+			}
+			else {
+				value = 1;
+			}
+		}
+		this.optn_numExecutionSlots = value;
+	}
+	
+	
+	/**
+	 * Tells how many threads label the tiles of the grid.
+	 * 
+	 * @return number of execution slots.
+	 */
+	public int getNumExecutionSlots() {
+		return this.optn_numExecutionSlots;
+	}
+	
+	
+	/**
+	 * Tip text provider for the sparse surface setting.
+	 * 
+	 * @return Text that briefly describes the functionality of the sparse
+	 *         surface setting.
+	 */
+	public String sparseSurfaceTipText() {
+		return "Store the grid surface in tiles, that are only allocated where instances are. This saves memory on large, sparsely populated grids.";
+	}
+	
+	
+	/**
+	 * Sets if the grid surface is stored in tiles allocated on first write.
+	 * 
+	 * @param value true for a sparse grid surface, false for a dense one.
+	 */
+	public void setSparseSurface(boolean value) {
+		this.optn_sparseSurface = value;
+	}
+	
+	
+	/**
+	 * Tells if the grid surface is stored in tiles allocated on first write.
+	 * 
+	 * @return true for a sparse grid surface, false for a dense one.
+	 */
+	public boolean getSparseSurface() {
+		return this.optn_sparseSurface;
+	}
+	
+	
 	/**
 	 * Provides information about the available options for this clusterer.
 	 * 
@@ -333,8 +452,10 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		result.addElement(new Option("\tSearch also at grid cells diagonal to the current cell for instances of the same cluster.\n\tIf false only instances at the grid cells above, below, left and right around the current grid cell are added to the cluster. If set to true, also instances at diagonal positions are added to the cluster. Usually adding instances only above, below, left and right is the better choice.\n\t(default = false)", "di", 1, "-di"));
 		result.addElement(new Option("\tSize of the surrounding area around a single instance in which clusters are searched.\n\tThe area is defined as a square around a single instance with this number of grid in each direction. If there is only one cluster type found in this area, a single instance is automatically added to this cluster, if the cluster contains more than one instance. Usually single instances in direct neighborhood to one cluster belong to this cluster. This setting helps to speed up the cluster merging process. Set to -1 to not treat single instances seperately.\n\t(default = 1)", "jw", 1, "-jw <num>"));
 		result.addElement(new Option("\tMaximum number of clusters in the result.\n\tIf there are more clusters found than allowed by this setting, clusters must be merged to match this value. Usually instances of the same cluster are separated in different clusters on the grid by the ants, so it is recommended to merge clusters. Set to -1 to not merge clusters.", "maxcluster", 1, "-maxcluster <num>"));
-		result.addElement(new Option("\tHow to compare clusters for determining which clusters should be merged.\n\tThis setting specifies how clusters are compared. Clusters that are regarded as most similar by this comparison method are merged until the requirement of maximum number of clusters in the result is met.", "comp", 1, "-comp <type>"));
+		result.addElement(new Option("\tHow to compare clusters for determining which clusters should be merged.\n\tThis setting specifies how clusters are compared. Clusters that are regarded as most similar by this comparison method are merged until the requirement of maximum number of clusters in the result is met. Possible types are centroid (distance of the centroids), single (smallest distance between members), complete (largest distance between members), average (mean distance between members) and ward (increase of the squared distances to the centroid).\n\t(default = centroid)", "comp", 1, "-comp <type>"));
 		result.addElement(new Option("\tDistance function to use for instance comparison.\n\tThis distance function is used to determine the distance between two instances according to their attributes.\n\t(default = weka.core.EuclideanDistance)", "dist", 1, "-dist <classname and options>"));
+		result.addElement(new Option("\tNumber of execution slots.\n\tHow many threads label the tiles of the grid when searching the clusters. The tiles are joined at their borders afterwards, so the clusters are the same for any number of threads. Set to 1 to label the grid sequentially.\n\t(default = 1)", "es", 1, "-es <num>"));
+		result.addElement(new Option("\tStore the grid surface sparsely.\n\tThe grid surface is stored in tiles of " + sparseSurfaceTileSize + " x " + sparseSurfaceTileSize + " grid cells, that are only allocated where instances are, and empty tiles are skipped when searching the clusters. This saves memory on large, sparsely populated grids, but reading a grid cell takes a little longer.\n\t(default = false)", "sg", 0, "-sg"));
 		result.addAll(Collections.list(super.listOptions()));
 		return result.elements();
 	}
@@ -364,7 +485,19 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		}
 		
 		temp = Utils.getOption("comp", options);
-		if (temp.compareTo(tag_compareModeCentroidLabel) == 0) {
+		if (temp.compareTo(tag_compareModeSingleLabel) == 0) {
+			this.setClusterCompareMode(new SelectedTag(tag_compareModeSingle, tags));
+		}
+		else if (temp.compareTo(tag_compareModeCompleteLabel) == 0) {
+			this.setClusterCompareMode(new SelectedTag(tag_compareModeComplete, tags));
+		}
+		else if (temp.compareTo(tag_compareModeAverageLabel) == 0) {
+			this.setClusterCompareMode(new SelectedTag(tag_compareModeAverage, tags));
+		}
+		else if (temp.compareTo(tag_compareModeWardLabel) == 0) {
+			this.setClusterCompareMode(new SelectedTag(tag_compareModeWard, tags));
+		}
+		else {
 			this.setClusterCompareMode(new SelectedTag(tag_compareModeCentroid, tags));
 		}
 		
@@ -382,6 +515,13 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 			this.setDistanceFunction(new EuclideanDistance());
 		}
 		
+		temp = Utils.getOption("es", options);
+		if (temp.length() > 0) {
+			this.setNumExecutionSlots(Integer.parseInt(temp));
+		}
+		
+		this.setSparseSurface(Utils.getFlag("sg", options));
+		
 		super.setOptions(options);
 		Utils.checkForRemainingOptions(options);
 		
@@ -411,11 +551,22 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		result.add("-comp"); // DEL kdFunction
 		switch (this.optn_clusterCompareMode) {
 			case tag_compareModeCentroid: result.add(tag_compareModeCentroidLabel); break;
+			case tag_compareModeSingle: result.add(tag_compareModeSingleLabel); break;
+			case tag_compareModeComplete: result.add(tag_compareModeCompleteLabel); break;
+			case tag_compareModeAverage: result.add(tag_compareModeAverageLabel); break;
+			case tag_compareModeWard: result.add(tag_compareModeWardLabel); break;
 		}
 		
 		result.add("-dist");
 		result.add((this.optn_distanceFunction.getClass().getName()
 			 + " " + Utils.joinOptions(this.optn_distanceFunction.getOptions())).trim());
+			
+		result.add("-es");
+		result.add("" + this.getNumExecutionSlots());
+		
+		if (this.optn_sparseSurface) {
+			result.add("-sg");
+		}
 		
 		Collections.addAll(result, super.getOptions());
 		
@@ -522,16 +673,36 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 	 * A surface to reflect the positions of the instances on the grid. For this
 	 * clusterer just the grid surface is required, but not the whole
 	 * functionality of a grid, to do the position calculations.
+	 * <p>
+	 * A sparse surface stores the cells in square tiles of
+	 * {@link AntGridClusterer#sparseSurfaceTileSize} cells edge length, which
+	 * are only allocated when the first value is written to them. So large
+	 * grids with few instances take little memory, and scans can skip the
+	 * tiles that were never written, see {@link #getFreeCellsAbove(int, int)}.
 	 */
 	protected class GridSurface {
 		
 		/**
 		 * The surface of the grid as an array, where the {@linkplain InstancePlaceholder}
 		 * objects are placed. The two dimensions of the array represent the two
-		 * grid dimensions, where the first one is the x dimension.
+		 * grid dimensions, where the first one is the x dimension. It is null
+		 * for a sparse surface.
 		 */
 		protected int[][] surface;
 		
+		/**
+		 * The tiles of a sparse surface, column by column, or null for a dense
+		 * surface. Tiles that were never written are null. A tile holds its
+		 * cells column by column, each cell holds the index of the
+		 * InstancePlaceholder plus one, so a new tile needs no filling.
+		 */
+		protected int[][] tiles;
+		
+		/**
+		 * Number of tiles of a sparse surface in the y dimension.
+		 */
+		protected int tilesY;
+		
 		/**
 		 * Size of the grid surface in the x dimension measured in number of
 		 * grid cells.
@@ -550,11 +721,19 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		 * 
 		 * @param xSize size of the grid surface in the x dimension.
 		 * @param ySize size of the grid surface in the y dimension.
+		 * @param sparse true, if the tiles of the surface should be allocated
+		 *        on first write, false for one dense array.
 		 */
-		public GridSurface(int xSize, int ySize) {
-			this.surface = new int[xSize][ySize];
+		public GridSurface(int xSize, int ySize, boolean sparse) {
 			this.xSize = xSize;
 			this.ySize = ySize;
+			if (sparse) {
+				int tilesX = (xSize + sparseSurfaceTileSize - 1) >> sparseSurfaceTileShift;
+				this.tilesY = (ySize + sparseSurfaceTileSize - 1) >> sparseSurfaceTileShift;
+				this.tiles = new int[tilesX * this.tilesY][];
+				return;
+			}
+			this.surface = new int[xSize][ySize];
 			for (int i = 0; i < xSize; i++) {
 				for (int j = 0; j < ySize; j++) {
 					this.surface[i][j] = -1; //Because 0 is already a valid InstancePlaceholder index.
@@ -580,6 +759,50 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		}
 		
 		
+		/**
+		 * Reads a cell of the surface. The position must be on the surface.
+		 * 
+		 * @param x position on the x axis
+		 * @param y position on the y axis
+		 * @return value of the cell or -1 if no value is there.
+		 */
+		protected int getCell(int x, int y) {
+			if (!(this.tiles instanceof int[][])) {
+				return this.surface[x][y];
+			}
+			int[] tile = this.tiles[(x >> sparseSurfaceTileShift) * this.tilesY + (y >> sparseSurfaceTileShift)];
+			if (!(tile instanceof int[])) {
+				return -1;
+			}
+			return tile[((x & (sparseSurfaceTileSize - 1)) << sparseSurfaceTileShift) | (y & (sparseSurfaceTileSize - 1))] - 1;
+		}
+		
+		
+		/**
+		 * Writes a cell of the surface. The position must be on the surface.
+		 * 
+		 * @param x position on the x axis
+		 * @param y position on the y axis
+		 * @param i value for the cell, -1 for no value.
+		 */
+		protected void setCell(int x, int y, int i) {
+			if (!(this.tiles instanceof int[][])) {
+				this.surface[x][y] = i;
+				return;
+			}
+			int tileIndex = (x >> sparseSurfaceTileShift) * this.tilesY + (y >> sparseSurfaceTileShift);
+			int[] tile = this.tiles[tileIndex];
+			if (!(tile instanceof int[])) {
+				if (i < 0) {
+					return; //The cell is already free.
+				}
+				tile = new int[sparseSurfaceTileSize * sparseSurfaceTileSize];
+				this.tiles[tileIndex] = tile;
+			}
+			tile[((x & (sparseSurfaceTileSize - 1)) << sparseSurfaceTileShift) | (y & (sparseSurfaceTileSize - 1))] = i + 1;
+		}
+		
+		
 		/**
 		 * Sets the value of a cell to the given value. Usually this is the
 		 * index of an {@linkplain InstancePlaceholder}. The value -1 is also
@@ -596,7 +819,7 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 			if (!isPositionOnSurface(position)) {
 				throw new IllegalArgumentException("The given coordinate is not a valid position on the grid surface.");
 			}
-			this.surface[position.x][position.y] = i;
+			this.setCell(position.x, position.y, i);
 		}
 		
 		
@@ -613,7 +836,66 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 			if (!isPositionOnSurface(position)) {
 				throw new IllegalArgumentException("The given coordinate is not a valid position on the grid surface.");
 			}
-			return this.surface[position.x][position.y];
+			return this.getCell(position.x, position.y);
+		}
+		
+		
+		/**
+		 * Tells the value of a grid surface cell without creating a
+		 * {@linkplain Coordinate}.
+		 * 
+		 * @param x position on the x axis
+		 * @param y position on the y axis
+		 * @return value of the cell or -1 if no value is there or the
+		 *         position is not on the grid surface.
+		 */
+		public int getInstancePlaceholderIndex(int x, int y) {
+			if (x < 0 || y < 0 || x >= this.xSize || y >= this.ySize) {
+				return -1;
+			}
+			return this.getCell(x, y);
+		}
+		
+		
+		/**
+		 * Tells how many cells above a free cell are known to be free without
+		 * reading them, because they belong to the same tile of a sparse
+		 * surface, that was never written. Scans in the y direction can skip
+		 * them.
+		 * 
+		 * @param x position of the free cell on the x axis
+		 * @param y position of the free cell on the y axis
+		 * @return number of free cells above the cell in the same tile, 0 for a
+		 *         dense surface or a written tile.
+		 */
+		public int getFreeCellsAbove(int x, int y) {
+			if (!(this.tiles instanceof int[][]) || x < 0 || y < 0 || x >= this.xSize || y >= this.ySize) {
+				return 0;
+			}
+			if (this.tiles[(x >> sparseSurfaceTileShift) * this.tilesY + (y >> sparseSurfaceTileShift)] instanceof int[]) {
+				return 0;
+			}
+			return (y | (sparseSurfaceTileSize - 1)) - y;
+		}
+		
+		
+		/**
+		 * Tells the size of the grid surface in the x dimension.
+		 * 
+		 * @return number of grid cells in the x dimension.
+		 */
+		public int getXSize() {
+			return this.xSize;
+		}
+		
+		
+		/**
+		 * Tells the size of the grid surface in the y dimension.
+		 * 
+		 * @return number of grid cells in the y dimension.
+		 */
+		public int getYSize() {
+			return this.ySize;
 		}
 		
 		
@@ -628,7 +910,7 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 			if (!isPositionOnSurface(position)) {
 				return false;
 			}
-			return this.surface[position.x][position.y] >= 0;
+			return this.getCell(position.x, position.y) >= 0;
 		}
 		
 		
@@ -643,7 +925,7 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 			if (!isPositionOnSurface(position)) {
 				throw new IllegalArgumentException("The given coordinate is not a valid position on the grid surface.");
 			}
-			this.surface[position.x][position.y] = -1;
+			this.setCell(position.x, position.y, -1);
 		}
 		
 	}
@@ -765,19 +1047,38 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		/** All {@linkplain InstancePlaceholder} members of this cluster. */
 		protected ArrayList<InstancePlaceholder> members;
 		
-		/** A calculated {@linkplain Instance}, that represents the centroid of this cluster and does not necessarily match an existing member. */
+		/** Sum of the attribute values of all members, so the centroid can be calculated without a pass over the members. It is created when the first member is added. */
+		protected double[] sums;
+		
+		/** Sum of the normalized values of all members in the {@linkplain FeatureMatrix}, or null when there is no FeatureMatrix. */
+		protected double[] featureSums;
+		
+		/** A calculated {@linkplain Instance}, that represents the centroid of this cluster and does not necessarily match an existing member. It refers to {@link #centroidValues}, so it is created only once. */
 		protected Instance centroid;
 		
-		/** Indicates if the {@linkplain #centroid} is up to date. As calculating the centroid is costly, but it only changes on member changes, it is worth to track its up to date status. */
+		/** The attribute values of the {@linkplain #centroid}. */
+		protected double[] centroidValues;
+		
+		/** Indicates if the {@linkplain #centroid} is up to date with the {@linkplain #sums}. */
 		protected boolean centroidUpToDate;
 		
+		/** The centroid of this cluster in the normalized values of the {@linkplain FeatureMatrix}. */
+		protected double[] featureCentroid;
+		
+		/** Indicates if the {@linkplain #featureCentroid} is up to date with the {@linkplain #featureSums}. */
+		protected boolean featureCentroidUpToDate;
+		
 		
 		/**
 		 * The default constructor of this class.
 		 */
 		public Cluster() {
 			this.members = new ArrayList<InstancePlaceholder>();
+			if (featureMatrix instanceof FeatureMatrix) {
+				this.featureSums = new double[featureMatrix.numColumns()];
+			}
 			this.centroidUpToDate = false;
+			this.featureCentroidUpToDate = false;
 		}
 		
 		
@@ -810,7 +1111,7 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		 */
 		public void add(InstancePlaceholder ip) {
 			this.members.add(ip);
-			this.centroidUpToDate = false;
+			this.addToSums(ip, 1.0);
 		}
 		
 		
@@ -823,7 +1124,15 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		public void setMembers(ArrayList<InstancePlaceholder> members) {
 			this.members = members;
 			this.members.trimToSize();
+			this.sums = null;
+			if (this.featureSums instanceof double[]) {
+				Arrays.fill(this.featureSums, 0.0);
+			}
+			for (InstancePlaceholder ip : this.members) {
+				this.addToSums(ip, 1.0);
+			}
 			this.centroidUpToDate = false;
+			this.featureCentroidUpToDate = false;
 		}
 		
 		
@@ -847,8 +1156,7 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		 * @param index index of the cluster member to remove.
 		 */
 		public void remove(int index) {
-			this.members.remove(index);
-			this.centroidUpToDate = false;
+			this.addToSums(this.members.remove(index), -1.0);
 		}
 		
 		
@@ -858,14 +1166,78 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		 * @param ip InstancePlaceholder to be removed from this Cluster.
 		 */
 		public void remove(InstancePlaceholder ip) {
-			this.members.remove(ip);
+			if (this.members.remove(ip)) {
+				this.addToSums(ip, -1.0);
+			}
+		}
+		
+		
+		/**
+		 * Moves all members of {@code other} to this Cluster and assigns them
+		 * to this Cluster. {@code other} keeps its members and must not be used
+		 * anymore.
+		 * <p>
+		 * The sums of both clusters are added, so the centroid of the merged
+		 * cluster does not need a pass over all members.
+		 * 
+		 * @param other the Cluster to be merged into this Cluster.
+		 */
+		public void merge(Cluster other) {
+			if (other.sums instanceof double[]) {
+				if (!(this.sums instanceof double[])) {
+					this.sums = new double[other.sums.length];
+				}
+				for (int i = 0; i < this.sums.length; i++) {
+					this.sums[i] += other.sums[i];
+				}
+			}
+			if (this.featureSums instanceof double[]) {
+				for (int i = 0; i < this.featureSums.length; i++) {
+					this.featureSums[i] += other.featureSums[i];
+				}
+			}
+			this.members.addAll(other.members);
+			for (InstancePlaceholder mem : other.members) {
+				mem.setCluster(this);
+			}
 			this.centroidUpToDate = false;
+			this.featureCentroidUpToDate = false;
+		}
+		
+		
+		/**
+		 * Adds the values of a member to the {@linkplain #sums} and the
+		 * {@linkplain #featureSums}, or subtracts them.
+		 * 
+		 * @param ip the member
+		 * @param factor 1.0 for adding the values, -1.0 for subtracting them
+		 */
+		protected void addToSums(InstancePlaceholder ip, double factor) {
+			Instance instance = ip.getInstance();
+			int numAttributes = instance.numAttributes();
+			if (!(this.sums instanceof double[])) {
+				this.sums = new double[numAttributes];
+			}
+			for (int i = 0; i < numAttributes; i++) {
+				this.sums[i] += factor * instance.value(i);
+			}
+			if (this.featureSums instanceof double[]) {
+				int row = ip.getInstanceIndex();
+				for (int i = 0; i < this.featureSums.length; i++) {
+					this.featureSums[i] += factor * featureMatrix.value(row, i);
+				}
+			}
+			this.centroidUpToDate = false;
+			this.featureCentroidUpToDate = false;
 		}
 		
 		
 		/**
 		 * Tells the centroid {@linkplain Instance} of this Cluster. This is not
 		 * necessarily a member of this cluster.
+		 * <p>
+		 * The same Instance is returned on each call, its values change when
+		 * the members of this Cluster change.
 		 * 
 		 * @return Instance as centroid of this cluster.
 		 * @throws RuntimeException if this Cluster has no members.
@@ -877,22 +1249,44 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 			if (this.members.size() == 0) {
 				throw new RuntimeException("Can not calculate centroid of cluster, because the cluster has no members.");
 			}
-			int numAttributes = this.members.get(0).getInstance().numAttributes();
-			double[] attValues = new double[numAttributes];
-			for (InstancePlaceholder ip : this.members) {
-				for (int i = 0; i < numAttributes; i++) {
-					attValues[i] = attValues[i] + ip.getInstance().value(i);
-				}
+			if (!(this.centroid instanceof Instance)) {
+				this.centroidValues = new double[this.sums.length];
+				this.centroid = new DenseInstance(1.0, this.centroidValues); //The instance refers to the array, it does not copy it.
 			}
-			for (int i = 0; i < numAttributes; i++) {
-				attValues[i] = attValues[i] / this.members.size();
+			for (int i = 0; i < this.sums.length; i++) {
+				this.centroidValues[i] = this.sums[i] / this.members.size();
 			}
-			this.centroid = new DenseInstance(1.0, attValues);
 			this.centroidUpToDate = true;
 			return this.centroid;
 		}
 		
 		
+		/**
+		 * Tells the centroid of this Cluster in the normalized values of the
+		 * {@linkplain FeatureMatrix}. It can only be used while there is a
+		 * FeatureMatrix. The same array is returned on each call.
+		 * 
+		 * @return the normalized values of the centroid.
+		 * @throws RuntimeException if this Cluster has no members.
+		 */
+		public double[] getFeatureCentroid() throws RuntimeException {
+			if (this.featureCentroidUpToDate) {
+				return this.featureCentroid;
+			}
+			if (this.members.size() == 0) {
+				throw new RuntimeException("Can not calculate centroid of cluster, because the cluster has no members.");
+			}
+			if (!(this.featureCentroid instanceof double[])) {
+				this.featureCentroid = new double[this.featureSums.length];
+			}
+			for (int i = 0; i < this.featureSums.length; i++) {
+				this.featureCentroid[i] = this.featureSums[i] / this.members.size();
+			}
+			this.featureCentroidUpToDate = true;
+			return this.featureCentroid;
+		}
+		
+		
 		/**
 		 * Iterates over all {@linkplain InstancePlaceholder} objects managed by this object.
 		 * 
@@ -920,12 +1314,30 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 	
 	/**
 	 * Compares two clusters and indicate their similarity by a double value.
+	 * <p>
+	 * The linkage modes compare the members of both clusters. When clusters
+	 * are merged repeatedly, they are not compared again pair by pair: the
+	 * comparator calculates the distances between all clusters once in
+	 * {@link #prepare(Cluster[])} and then updates them with the
+	 * Lance-Williams formula in {@link #merge(Cluster[], int, int)}. Centroid
+	 * and Ward comparison only need the centroids and sizes of the clusters,
+	 * which the clusters keep up to date anyway.
 	 */
 	protected class ClusterComparator {
 		
 		/** Compare mode to be used. */
 		protected int mode = 0;
 		
+		/**
+		 * Distances between the clusters given to {@link #prepare(Cluster[])},
+		 * as condensed upper triangle of the distance matrix. It is only used
+		 * for complete-link and average-link.
+		 */
+		protected double[] distances = null;
+		
+		/** Number of clusters given to {@link #prepare(Cluster[])}. */
+		protected int numClusters = 0;
+		
 		
 		/**
 		 * The default constructor of this class.
@@ -944,11 +1356,16 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		 *         mode.
 		 */
 		public void setMode(int mode) throws IllegalArgumentException {
-			if (mode == tag_compareModeCentroid) {
-				this.mode = mode;
-			}
-			else {
-				throw new IllegalArgumentException("Currently only the cluster compare mode 0 is supported.");
+			switch (mode) {
+				case tag_compareModeCentroid:
+				case tag_compareModeSingle:
+				case tag_compareModeComplete:
+				case tag_compareModeAverage:
+				case tag_compareModeWard:
+					this.mode = mode;
+					this.distances = null;
+					break;
+				default: throw new IllegalArgumentException("Unknown cluster compare mode " + mode + ".");
 			}
 		}
 		
@@ -975,11 +1392,115 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		public double compare(Cluster cluster, Cluster compareTo) {
 			switch (mode) {
 				case tag_compareModeCentroid: return compare_centroid(cluster, compareTo);
+				case tag_compareModeSingle:
+				case tag_compareModeComplete:
+				case tag_compareModeAverage: return compare_linkage(cluster, compareTo);
+				case tag_compareModeWard: return compare_ward(cluster, compareTo);
 				default: throw new RuntimeException("Unknown cluster compare mode.");
 			}
 		}
 		
 		
+		/**
+		 * Prepares comparing clusters by their position in {@code clusters}
+		 * with {@link #compare(Cluster[], int, int)}. For complete-link and
+		 * average-link the distances between all clusters are calculated here,
+		 * which compares each pair of instances once. They take 8 bytes for
+		 * each pair of clusters, which must fit into one array and into the
+		 * heap memory that is still available.
+		 * 
+		 * @param clusters the clusters to be compared
+		 * @throws IllegalStateException if the distances between the clusters
+		 *         can not be stored.
+		 */
+		public void prepare(Cluster[] clusters) throws IllegalStateException {
+			this.distances = null;
+			this.numClusters = clusters.length;
+			if (this.mode != tag_compareModeComplete && this.mode != tag_compareModeAverage) {
+				return;
+			}
+			long numPairs = (long) this.numClusters * (this.numClusters - 1) / 2;
+			Runtime runtime = Runtime.getRuntime();
+			long availableBytes = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+			if (numPairs > Integer.MAX_VALUE - 8 || numPairs * 8 > availableBytes) { //Comparing the clusters member by member on each request would take far too long.
+				throw new IllegalStateException("The distances between the " + this.numClusters + " clusters found on the grid need " + (numPairs * 8 >> 20) + " MB, but only " + (availableBytes >> 20) + " MB of the heap are available and at most " + (Integer.MAX_VALUE - 8) + " distances can be stored. Use another cluster compare mode than complete-link or average-link, or give the JVM more heap memory.");
+			}
+			this.distances = new double[(int) numPairs];
+			for (int i = 0; i < this.numClusters; i++) {
+				for (int j = i + 1; j < this.numClusters; j++) {
+					this.distances[this.pairIndex(i, j)] = this.compare(clusters[i], clusters[j]);
+				}
+			}
+		}
+		
+		
+		/**
+		 * Compares two clusters given by their position in the array passed to
+		 * {@link #prepare(Cluster[])}.
+		 * 
+		 * @param clusters the clusters, null for merged clusters
+		 * @param first position of the first cluster
+		 * @param second position of the second cluster, greater than
+		 *        {@code first}
+		 * @return comparison result as double value. The more similar the
+		 *         clusters are, the smaller is the returned value.
+		 */
+		public double compare(Cluster[] clusters, int first, int second) {
+			if (this.distances instanceof double[]) {
+				return this.distances[this.pairIndex(first, second)];
+			}
+			return this.compare(clusters[first], clusters[second]);
+		}
+		
+		
+		/**
+		 * Updates the stored distances before the cluster at position
+		 * {@code second} is merged into the cluster at position {@code first}.
+		 * The distance of the merged cluster to each other cluster follows from
+		 * the distances of both clusters by the Lance-Williams formula: the
+		 * maximum for complete-link, the mean weighted by the cluster sizes for
+		 * average-link.
+		 * 
+		 * @param clusters the clusters, null for merged clusters
+		 * @param first position of the cluster that remains
+		 * @param second position of the cluster that is merged into it
+		 */
+		public void merge(Cluster[] clusters, int first, int second) {
+			if (!(this.distances instanceof double[])) {
+				return;
+			}
+			double firstSize = clusters[first].size();
+			double secondSize = clusters[second].size();
+			for (int k = 0; k < clusters.length; k++) {
+				if (clusters[k] == null || k == first || k == second) {
+					continue;
+				}
+				int firstIndex = this.pairIndex(Math.min(first, k), Math.max(first, k));
+				int secondIndex = this.pairIndex(Math.min(second, k), Math.max(second, k));
+				if (this.mode == tag_compareModeComplete) {
+					this.distances[firstIndex] = Math.max(this.distances[firstIndex], this.distances[secondIndex]);
+				}
+				else {
+					this.distances[firstIndex] = (firstSize * this.distances[firstIndex] + secondSize * this.distances[secondIndex]) / (firstSize + secondSize);
+				}
+			}
+		}
+		
+		
+		/**
+		 * Tells the position of the distance between two clusters in
+		 * {@link #distances}.
+		 * 
+		 * @param first position of the first cluster
+		 * @param second position of the second cluster, greater than
+		 *        {@code first}
+		 * @return position in {@link #distances}.
+		 */
+		protected int pairIndex(int first, int second) {
+			return (int) ((long) first * (2L * this.numClusters - first - 1) / 2 + (second - first - 1));
+		}
+		
+		
 		/**
 		 * Runs the centroid comparison value.
 		 * <p>
@@ -992,9 +1513,588 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		 *         clusters are, the smaller is the returned value.
 		 */
 		private double compare_centroid(Cluster cluster, Cluster compareTo) {
+			if (featureMatrix instanceof FeatureMatrix) {
+				return featureMatrix.distance(cluster.getFeatureCentroid(), compareTo.getFeatureCentroid());
+			}
 			return optn_distanceFunction.distance(cluster.getCentroid(), compareTo.getCentroid());
 		}
 		
+		
+		/**
+		 * Runs the single-link, complete-link or average-link comparison.
+		 * <p>
+		 * The similarity value is the smallest, the largest or the mean
+		 * distance between a member of one cluster and a member of the other
+		 * cluster.
+		 * 
+		 * @param cluster the Cluster to be compared
+		 * @param compareTo the Cluster {@code cluster} is compared with
+		 * @return comparison result as double value. The more similar the
+		 *         clusters are, the smaller is the returned value.
+		 */
+		private double compare_linkage(Cluster cluster, Cluster compareTo) {
+			double result = this.mode == tag_compareModeSingle ? Double.POSITIVE_INFINITY : 0.0;
+			for (InstancePlaceholder ip : cluster) {
+				for (InstancePlaceholder ip2 : compareTo) {
+					double distance;
+					if (featureMatrix instanceof FeatureMatrix) {
+						distance = featureMatrix.distance(ip.getInstanceIndex(), ip2.getInstanceIndex());
+					}
+					else {
+						distance = optn_distanceFunction.distance(ip.getInstance(), ip2.getInstance());
+					}
+					switch (this.mode) {
+						case tag_compareModeSingle: result = Math.min(result, distance); break;
+						case tag_compareModeComplete: result = Math.max(result, distance); break;
+						default: result += distance; break;
+					}
+				}
+			}
+			if (this.mode == tag_compareModeAverage) {
+				result = result / ((double) cluster.size() * compareTo.size());
+			}
+			return result;
+		}
+		
+		
+		/**
+		 * Runs the Ward comparison.
+		 * <p>
+		 * The similarity value is the increase of the sum of squared distances
+		 * to the centroid, when both clusters are merged. It only needs the
+		 * centroids and the sizes of both clusters, and gives the same values
+		 * as the Lance-Williams update for Ward.
+		 * 
+		 * @param cluster the Cluster to be compared
+		 * @param compareTo the Cluster {@code cluster} is compared with
+		 * @return comparison result as double value. The more similar the
+		 *         clusters are, the smaller is the returned value.
+		 */
+		private double compare_ward(Cluster cluster, Cluster compareTo) {
+			double distance = this.compare_centroid(cluster, compareTo);
+			double size = cluster.size();
+			double compareToSize = compareTo.size();
+			return size * compareToSize / (size + compareToSize) * distance * distance;
+		}
+		
+	}
+	
+	
+	/**
+	 * Entry of the priority queue used by
+	 * {@link AntGridClusterer#mergeClusters(ArrayList, ClusterComparator)}. It
+	 * tells the distance of a cluster to its nearest neighbor at the time the
+	 * entry was made. Entries are not removed from the queue when the nearest
+	 * neighbor changes, but they become stale and are skipped.
+	 */
+	protected class NearestNeighborEntry implements Comparable<NearestNeighborEntry> {
+		
+		/** Position of the cluster in the list of clusters. */
+		protected final int position;
+		
+		/** Distance of the cluster to its nearest neighbor. */
+		protected final double distance;
+		
+		/** Version of the nearest neighbor of the cluster, when this entry was made. */
+		protected final int version;
+		
+		
+		/**
+		 * The default constructor of this class.
+		 * 
+		 * @param position position of the cluster in the list of clusters
+		 * @param distance distance of the cluster to its nearest neighbor
+		 * @param version version of the nearest neighbor of the cluster
+		 */
+		public NearestNeighborEntry(int position, double distance, int version) {
+			this.position = position;
+			this.distance = distance;
+			this.version = version;
+		}
+		
+		
+		/**
+		 * Orders the entries by distance, and entries of the same distance by
+		 * the position of their cluster.
+		 * 
+		 * @param other the entry to compare with
+		 * @return a negative value, zero or a positive value, if this entry
+		 *         comes before, together with or after {@code other}.
+		 */
+		@Override
+		public int compareTo(NearestNeighborEntry other) {
+			if (this.distance != other.distance) {
+				return this.distance < other.distance ? -1 : 1;
+			}
+			return Integer.compare(this.position, other.position);
+		}
+		
+	}
+	
+	
+	/**
+	 * Labels the connected groups of a range of tiles of the grid surface,
+	 * see {@link AntGridClusterer#labelComponents(GridSurface, ArrayList, ArrayList)}.
+	 * It splits itself while the range holds more than one tile.
+	 */
+	protected class TileLabeling extends RecursiveAction {
+		
+		/** For serialization */
+		private static final long serialVersionUID = 3358128805947166720L;
+		
+		/** The grid surface to label. */
+		protected GridSurface surface;
+		
+		/** Disjoint-set forest over the InstancePlaceholder indexes. */
+		protected int[] parent;
+		
+		/** Number of tiles in the y dimension. */
+		protected int tilesY;
+		
+		/** First tile of the range, the tiles are numbered column by column. */
+		protected int from;
+		
+		/** Tile after the last tile of the range. */
+		protected int to;
+		
+		
+		/**
+		 * The default constructor of this class.
+		 * 
+		 * @param surface the grid surface to label
+		 * @param parent disjoint-set forest over the InstancePlaceholder
+		 *        indexes
+		 * @param tilesY number of tiles in the y dimension
+		 * @param from first tile of the range
+		 * @param to tile after the last tile of the range
+		 */
+		public TileLabeling(GridSurface surface, int[] parent, int tilesY, int from, int to) {
+			this.surface = surface;
+			this.parent = parent;
+			this.tilesY = tilesY;
+			this.from = from;
+			this.to = to;
+		}
+		
+		
+		/**
+		 * Labels the tiles of the range, or splits the range into two tasks.
+		 */
+		@Override
+		protected void compute() {
+			if (this.to - this.from > 1) {
+				int middle = (this.from + this.to) >>> 1;
+				invokeAll(new TileLabeling(this.surface, this.parent, this.tilesY, this.from, middle), new TileLabeling(this.surface, this.parent, this.tilesY, middle, this.to));
+				return;
+			}
+			int tileX = (this.from / this.tilesY) * labelTileSize;
+			int tileY = (this.from % this.tilesY) * labelTileSize;
+			labelTile(this.surface, this.parent, tileX, tileY, Math.min(tileX + labelTileSize, this.surface.getXSize()), Math.min(tileY + labelTileSize, this.surface.getYSize()));
+		}
+		
+	}
+	
+	
+	/**
+	 * Assigns each {@linkplain InstancePlaceholder} to a {@linkplain Cluster}
+	 * of all InstancePlaceholder objects connected to it on the grid surface.
+	 * <p>
+	 * Neighbors are the cells above, below, left and right, and with
+	 * {@link #optn_alsoDiagonalNeighborsForClusterSearch} also the diagonal
+	 * cells. Connected InstancePlaceholder objects are united in a
+	 * disjoint-set forest over their indexes, so labeling takes nearly
+	 * linear time. The grid surface is split into tiles of
+	 * {@link #labelTileSize} cells, that are labeled independently, with
+	 * several execution slots in parallel. Afterwards the cells at the tile
+	 * borders are joined with their neighbors in the adjacent tiles, so the
+	 * clusters do not depend on the tiles. Only the border columns and the
+	 * border rows are visited for that, not the whole grid surface.
+	 * <p>
+	 * The clusters are ordered by their lowest member index and each cluster
+	 * lists its members in the order of their indexes. Each cell holds one
+	 * InstancePlaceholder, one that is not found on the grid surface forms a
+	 * cluster of its own.
+	 * 
+	 * @param surface the grid surface holding the InstancePlaceholder indexes
+	 * @param instancePlaceholders all InstancePlaceholder objects
+	 * @param clusters list to add the found clusters to, in the order of
+	 *        their first members.
+	 */
+	protected void labelComponents(GridSurface surface, ArrayList<InstancePlaceholder> instancePlaceholders, ArrayList<Cluster> clusters) {
+		int size = instancePlaceholders.size();
+		int xSize = surface.getXSize();
+		int ySize = surface.getYSize();
+		int[] parent = new int[size];
+		for (int i = 0; i < size; i++) {
+			parent[i] = i;
+		}
+		int tilesX = (xSize + labelTileSize - 1) / labelTileSize;
+		int tilesY = (ySize + labelTileSize - 1) / labelTileSize;
+		if (optn_numExecutionSlots > 1 && tilesX * tilesY > 1) {
+			ForkJoinPool pool = new ForkJoinPool(optn_numExecutionSlots);
+			try {
+				pool.invoke(new TileLabeling(surface, parent, tilesY, 0, tilesX * tilesY));
+			}
+			finally {
+				pool.shutdown();
+			}
+			for (int x = 0; x < xSize; x++) { //Join the tiles at their borders.
+				if (x % labelTileSize == 0) { //The left neighbors are in the tiles to the left.
+					for (int y = 0; y < ySize; y++) {
+						int index = surface.getInstancePlaceholderIndex(x, y);
+						if (index >= 0) {
+							this.unionBackwardNeighbors(surface, parent, index, x, y, 0, 0, xSize, ySize);
+						}
+						else {
+							y += surface.getFreeCellsAbove(x, y);
+						}
+					}
+					continue;
+				}
+				for (int y = labelTileSize; y - 1 < ySize; y += labelTileSize) { //Only the rows at the tile borders.
+					if (optn_alsoDiagonalNeighborsForClusterSearch) { //The left above neighbor is in the tile above.
+						int index = surface.getInstancePlaceholderIndex(x, y - 1);
+						if (index >= 0) {
+							this.unionBackwardNeighbors(surface, parent, index, x, y - 1, 0, 0, xSize, ySize);
+						}
+					}
+					if (y < ySize) { //The neighbors below are in the tile below.
+						int index = surface.getInstancePlaceholderIndex(x, y);
+						if (index >= 0) {
+							this.unionBackwardNeighbors(surface, parent, index, x, y, 0, 0, xSize, ySize);
+						}
+					}
+				}
+			}
+		}
+		else {
+			this.labelTile(surface, parent, 0, 0, xSize, ySize);
+		}
+		Cluster[] rootClusters = new Cluster[size];
+		for (int i = 0; i < size; i++) { //In the order of the indexes, so the clusters are ordered by their lowest member index.
+			int root = find(parent, i);
+			Cluster cluster = rootClusters[root];
+			if (!(cluster instanceof Cluster)) {
+				cluster = new Cluster();
+				rootClusters[root] = cluster;
+				clusters.add(cluster);
+			}
+			InstancePlaceholder ip = instancePlaceholders.get(i);
+			cluster.add(ip);
+			ip.setCluster(cluster);
+		}
+	}
+	
+	
+	/**
+	 * Unites the InstancePlaceholder objects connected within one tile of
+	 * the grid surface. Only the forest entries of InstancePlaceholder
+	 * objects in the tile are changed, so several tiles can be labeled at the
+	 * same time.
+	 * 
+	 * @param surface the grid surface holding the InstancePlaceholder indexes
+	 * @param parent disjoint-set forest over the InstancePlaceholder indexes
+	 * @param fromX first cell of the tile on the x axis
+	 * @param fromY first cell of the tile on the y axis
+	 * @param toX cell after the last cell of the tile on the x axis
+	 * @param toY cell after the last cell of the tile on the y axis
+	 */
+	protected void labelTile(GridSurface surface, int[] parent, int fromX, int fromY, int toX, int toY) {
+		for (int x = fromX; x < toX; x++) {
+			for (int y = fromY; y < toY; y++) {
+				int index = surface.getInstancePlaceholderIndex(x, y);
+				if (index >= 0) {
+					this.unionBackwardNeighbors(surface, parent, index, x, y, fromX, fromY, toX, toY);
+				}
+				else {
+					y += surface.getFreeCellsAbove(x, y);
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Unites an InstancePlaceholder with its neighbors in the cells scanned
+	 * before its own cell, namely left, below and with diagonal neighbors
+	 * also left below and left above. Scanning all cells like this covers
+	 * each pair of neighbors once.
+	 * 
+	 * @param surface the grid surface holding the InstancePlaceholder indexes
+	 * @param parent disjoint-set forest over the InstancePlaceholder indexes
+	 * @param index index of the InstancePlaceholder
+	 * @param x position of the InstancePlaceholder on the x axis
+	 * @param y position of the InstancePlaceholder on the y axis
+	 * @param fromX first cell on the x axis, that may be regarded
+	 * @param fromY first cell on the y axis, that may be regarded
+	 * @param toX cell after the last cell on the x axis, that may be regarded
+	 * @param toY cell after the last cell on the y axis, that may be regarded
+	 */
+	protected void unionBackwardNeighbors(GridSurface surface, int[] parent, int index, int x, int y, int fromX, int fromY, int toX, int toY) {
+		if (x > fromX) {
+			union(parent, index, surface.getInstancePlaceholderIndex(x - 1, y));
+		}
+		if (y > fromY) {
+			union(parent, index, surface.getInstancePlaceholderIndex(x, y - 1));
+		}
+		if (optn_alsoDiagonalNeighborsForClusterSearch && x > fromX) {
+			if (y > fromY) {
+				union(parent, index, surface.getInstancePlaceholderIndex(x - 1, y - 1));
+			}
+			if (y + 1 < toY) {
+				union(parent, index, surface.getInstancePlaceholderIndex(x - 1, y + 1));
+			}
+		}
+	}
+	
+	
+	/**
+	 * Finds the root of an index in a disjoint-set forest and halves the path
+	 * to it.
+	 * 
+	 * @param parent the disjoint-set forest
+	 * @param index the index to search the root for
+	 * @return the root of {@code index}.
+	 */
+	protected static int find(int[] parent, int index) {
+		while (parent[index] != index) {
+			parent[index] = parent[parent[index]];
+			index = parent[index];
+		}
+		return index;
+	}
+	
+	
+	/**
+	 * Unites the sets of two indexes in a disjoint-set forest. The lower root
+	 * becomes the root of the united set.
+	 * 
+	 * @param parent the disjoint-set forest
+	 * @param first the first index
+	 * @param second the second index, nothing is done when it is -1
+	 */
+	protected static void union(int[] parent, int first, int second) {
+		if (second < 0) {
+			return;
+		}
+		int firstRoot = find(parent, first);
+		int secondRoot = find(parent, second);
+		if (firstRoot < secondRoot) {
+			parent[secondRoot] = firstRoot;
+		}
+		else if (secondRoot < firstRoot) {
+			parent[firstRoot] = secondRoot;
+		}
+	}
+	
+	
+	/**
+	 * Merges the most similar clusters until there are only
+	 * {@link #optn_maxClusterNum} clusters left.
+	 * <p>
+	 * Each cluster keeps its nearest neighbor among the clusters after it in
+	 * the list, and a priority queue holds the clusters ordered by the
+	 * distance to their nearest neighbor. So a merge does not need to compare
+	 * all pairs of clusters again, but only the clusters before the merged
+	 * cluster with it, and the clusters that had the removed cluster as
+	 * nearest neighbor. A nearest neighbor that became farther away by a merge
+	 * is not updated at once, but when its cluster comes first in the queue.
+	 * The merged pair is always the one the comparator tells most similar, the
+	 * first one in the list if several pairs are equally similar.
+	 * <p>
+	 * Single-link comparison is done by
+	 * {@link #mergeClustersBySpanningTree(ArrayList, ClusterComparator)}
+	 * instead.
+	 * 
+	 * @param clusters the clusters to merge, the merged clusters are removed
+	 * @param clusterComparator the comparator telling the similarity of two
+	 *        clusters
+	 * @throws IllegalStateException if the distances between the clusters
+	 *         can not be stored for complete-link or average-link.
+	 */
+	protected void mergeClusters(ArrayList<Cluster> clusters, ClusterComparator clusterComparator) {
+		if (clusterComparator.getMode() == tag_compareModeSingle) {
+			this.mergeClustersBySpanningTree(clusters, clusterComparator);
+			return;
+		}
+		int numClusters = clusters.size();
+		Cluster[] active = clusters.toArray(new Cluster[numClusters]); //Merged clusters are set to null.
+		clusterComparator.prepare(active);
+		int[] nearest = new int[numClusters];
+		double[] nearestDistance = new double[numClusters];
+		int[] versions = new int[numClusters];
+		PriorityQueue<NearestNeighborEntry> queue = new PriorityQueue<NearestNeighborEntry>(Math.max(1, numClusters));
+		for (int i = 0; i < numClusters; i++) {
+			this.updateNearestNeighbor(active, i, clusterComparator, nearest, nearestDistance, versions, queue);
+		}
+		int remaining = numClusters;
+		while (remaining > optn_maxClusterNum) {
+			NearestNeighborEntry entry = queue.poll();
+			int first = entry.position;
+			if (active[first] == null || entry.version != versions[first]) { //Stale entry.
+				continue;
+			}
+			int second = nearest[first];
+			if (clusterComparator.compare(active, first, second) != nearestDistance[first]) { //The nearest neighbor changed by a merge.
+				this.updateNearestNeighbor(active, first, clusterComparator, nearest, nearestDistance, versions, queue);
+				continue;
+			}
+			clusterComparator.merge(active, first, second);
+			active[first].merge(active[second]);
+			active[second] = null;
+			remaining--;
+			for (int i = 0; i < second; i++) {
+				if (active[i] == null || i == first) {
+					continue;
+				}
+				if (i > first) {
+					if (nearest[i] == second) {
+						this.updateNearestNeighbor(active, i, clusterComparator, nearest, nearestDistance, versions, queue);
+					}
+					continue;
+				}
+				if (nearest[i] == second) { //The old distance is still a lower bound, it is checked when the entry comes first.
+					nearest[i] = first;
+				}
+				double distance = clusterComparator.compare(active, i, first);
+				if (distance < nearestDistance[i] || (distance == nearestDistance[i] && first < nearest[i])) {
+					nearest[i] = first;
+					nearestDistance[i] = distance;
+					versions[i]++;
+					queue.add(new NearestNeighborEntry(i, distance, versions[i]));
+				}
+			}
+			this.updateNearestNeighbor(active, first, clusterComparator, nearest, nearestDistance, versions, queue);
+		}
+		clusters.clear();
+		for (Cluster cluster : active) {
+			if (cluster instanceof Cluster) {
+				clusters.add(cluster);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Merges the clusters with the smallest single-link distance until there
+	 * are only {@link #optn_maxClusterNum} clusters left.
+	 * <p>
+	 * Merging the nearest clusters by single-link gives the same clusters as
+	 * cutting the longest edges of a minimum spanning tree over the clusters.
+	 * So the spanning tree is built once with Prim's algorithm, which compares
+	 * each pair of instances once, and the shortest edges are joined
+	 * afterwards. When several edges are equally long, the edge found first
+	 * is joined first.
+	 * 
+	 * @param clusters the clusters to merge, the merged clusters are removed
+	 * @param clusterComparator the comparator telling the single-link distance
+	 *        of two clusters
+	 */
+	protected void mergeClustersBySpanningTree(ArrayList<Cluster> clusters, ClusterComparator clusterComparator) {
+		int numClusters = clusters.size();
+		Cluster[] active = clusters.toArray(new Cluster[numClusters]); //Merged clusters are set to null.
+		if (numClusters <= optn_maxClusterNum) {
+			return;
+		}
+		double[] linkDistance = new double[numClusters]; //Distance of each cluster to the tree.
+		Arrays.fill(linkDistance, Double.POSITIVE_INFINITY);
+		int[] linkTo = new int[numClusters]; //Nearest cluster in the tree.
+		boolean[] inTree = new boolean[numClusters];
+		final int[] edgeFrom = new int[numClusters - 1];
+		final int[] edgeTo = new int[numClusters - 1];
+		final double[] edgeDistance = new double[numClusters - 1];
+		int current = 0;
+		inTree[current] = true;
+		for (int e = 0; e < numClusters - 1; e++) {
+			int next = -1;
+			for (int j = 0; j < numClusters; j++) {
+				if (inTree[j]) {
+					continue;
+				}
+				double distance = clusterComparator.compare(active[current], active[j]);
+				if (distance < linkDistance[j]) {
+					linkDistance[j] = distance;
+					linkTo[j] = current;
+				}
+				if (next < 0 || linkDistance[j] < linkDistance[next]) {
+					next = j;
+				}
+			}
+			edgeFrom[e] = linkTo[next];
+			edgeTo[e] = next;
+			edgeDistance[e] = linkDistance[next];
+			inTree[next] = true;
+			current = next;
+		}
+		Integer[] order = new Integer[numClusters - 1];
+		for (int e = 0; e < order.length; e++) {
+			order[e] = e;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				if (edgeDistance[first] != edgeDistance[second]) {
+					return edgeDistance[first] < edgeDistance[second] ? -1 : 1;
+				}
+				return first.compareTo(second);
+			}
+		});
+		int[] parent = new int[numClusters];
+		for (int i = 0; i < numClusters; i++) {
+			parent[i] = i;
+		}
+		for (int e = 0; e < numClusters - optn_maxClusterNum; e++) {
+			union(parent, edgeFrom[order[e]], edgeTo[order[e]]);
+		}
+		for (int i = 0; i < numClusters; i++) {
+			int root = find(parent, i);
+			if (root != i) { //The root is the first cluster of its group.
+				active[root].merge(active[i]);
+				active[i] = null;
+			}
+		}
+		clusters.clear();
+		for (Cluster cluster : active) {
+			if (cluster instanceof Cluster) {
+				clusters.add(cluster);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Searches the nearest neighbor of a cluster among the clusters after it
+	 * and puts a new entry for it into the priority queue, see
+	 * {@link #mergeClusters(ArrayList, ClusterComparator)}.
+	 * 
+	 * @param active the clusters, null for merged clusters
+	 * @param position position of the cluster in {@code active}
+	 * @param clusterComparator the comparator telling the similarity of two
+	 *        clusters
+	 * @param nearest nearest neighbor of each cluster
+	 * @param nearestDistance distance of each cluster to its nearest neighbor
+	 * @param versions version of the nearest neighbor of each cluster
+	 * @param queue the priority queue
+	 */
+	protected void updateNearestNeighbor(Cluster[] active, int position, ClusterComparator clusterComparator, int[] nearest, double[] nearestDistance, int[] versions, PriorityQueue<NearestNeighborEntry> queue) {
+		int candidate = -1;
+		double candidateDistance = 0.0;
+		for (int j = position + 1; j < active.length; j++) {
+			if (active[j] == null) {
+				continue;
+			}
+			double distance = clusterComparator.compare(active, position, j);
+			if (distance < candidateDistance || candidate < 0) {
+				candidate = j;
+				candidateDistance = distance;
+			}
+		}
+		nearest[position] = candidate;
+		nearestDistance[position] = candidateDistance;
+		versions[position]++;
+		if (candidate >= 0) { //The last cluster has no neighbor after it.
+			queue.add(new NearestNeighborEntry(position, candidateDistance, versions[position]));
+		}
 	}
 	
 	
@@ -1016,11 +2116,10 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		}
 		int xSize = (int) this.data.grid().kthSmallestValue(0, size) + 1; //When there is an index 7, the range is 0-7, so the size is 8.
 		int ySize = (int) this.data.grid().kthSmallestValue(1, size) + 1;
-		GridSurface surface = new GridSurface(xSize, ySize);
+		GridSurface surface = new GridSurface(xSize, ySize, optn_sparseSurface);
 		ArrayList<InstancePlaceholder> instancePlaceholders = new ArrayList<InstancePlaceholder>(size);
 		ArrayList<Cluster> clusters = new ArrayList<Cluster>();
 		this.out_clusterAssignments = new int[size];
-		LinkedList<InstancePlaceholder> unclustered = new LinkedList<InstancePlaceholder>();
 		for (int i = 0; i < size; i++) {
 			int x = (int) this.data.grid().instance(i).value(0);
 			int y = (int) this.data.grid().instance(i).value(1);
@@ -1028,61 +2127,11 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 			InstancePlaceholder ip = new InstancePlaceholder(i, this.data.instance(i), position);
 			instancePlaceholders.add(i, ip);
 			surface.setInstancePlaceholderIndex(position, i);
-			unclustered.add(i, ip);
 		}
 		instancePlaceholders.trimToSize();
 		optn_distanceFunction.setInstances(this.data);
-		while (!unclustered.isEmpty()) { //Assign Instance/s to clusters.
-			Cluster collectCluster = new Cluster();
-			ArrayList<Coordinate> visited = new ArrayList<Coordinate>(); //Keep track of the coordinates already visited. Otherwise this seeking part is trapped in an infinite loop.
-			LinkedList<InstancePlaceholder> tasks = new LinkedList<InstancePlaceholder>();
-			tasks.offer(unclustered.pollFirst());
-			while (!tasks.isEmpty()) {
-				InstancePlaceholder current = tasks.pollFirst();
-				visited.add(current.getPosition());
-				Coordinate neighborCheck;
-				neighborCheck = current.getPosition().getRelativeCoordinate(0, 1);
-				if (surface.hasInstancePlaceholderIndex(neighborCheck) && !visited.contains(neighborCheck)) {
-					tasks.offer(instancePlaceholders.get(surface.getInstancePlaceholderIndex(neighborCheck)));
-				}
-				neighborCheck = current.getPosition().getRelativeCoordinate(0, -1);
-				if (surface.hasInstancePlaceholderIndex(neighborCheck) && !visited.contains(neighborCheck)) {
-					tasks.offer(instancePlaceholders.get(surface.getInstancePlaceholderIndex(neighborCheck)));
-				}
-				neighborCheck = current.getPosition().getRelativeCoordinate(-1, 0);
-				if (surface.hasInstancePlaceholderIndex(neighborCheck) && !visited.contains(neighborCheck)) {
-					tasks.offer(instancePlaceholders.get(surface.getInstancePlaceholderIndex(neighborCheck)));
-				}
-				neighborCheck = current.getPosition().getRelativeCoordinate(1, 0);
-				if (surface.hasInstancePlaceholderIndex(neighborCheck) && !visited.contains(neighborCheck)) {
-					tasks.offer(instancePlaceholders.get(surface.getInstancePlaceholderIndex(neighborCheck)));
-				}
-				if (optn_alsoDiagonalNeighborsForClusterSearch) {
-					neighborCheck = current.getPosition().getRelativeCoordinate(-1, 1);
-					if (surface.hasInstancePlaceholderIndex(neighborCheck) && !visited.contains(neighborCheck)) {
-						tasks.offer(instancePlaceholders.get(surface.getInstancePlaceholderIndex(neighborCheck)));
-					}
-					neighborCheck = current.getPosition().getRelativeCoordinate(1, 1);
-					if (surface.hasInstancePlaceholderIndex(neighborCheck) && !visited.contains(neighborCheck)) {
-						tasks.offer(instancePlaceholders.get(surface.getInstancePlaceholderIndex(neighborCheck)));
-					}
-					neighborCheck = current.getPosition().getRelativeCoordinate(-1, -1);
-					if (surface.hasInstancePlaceholderIndex(neighborCheck) && !visited.contains(neighborCheck)) {
-						tasks.offer(instancePlaceholders.get(surface.getInstancePlaceholderIndex(neighborCheck)));
-					}
-					neighborCheck = current.getPosition().getRelativeCoordinate(1, -1);
-					if (surface.hasInstancePlaceholderIndex(neighborCheck) && !visited.contains(neighborCheck)) {
-						tasks.offer(instancePlaceholders.get(surface.getInstancePlaceholderIndex(neighborCheck)));
-					}
-				}
-				if (!collectCluster.contains(current)) {
-					collectCluster.add(current);
-					current.setCluster(collectCluster);
-				}
-				unclustered.remove(current);
-			}
-			clusters.add(collectCluster);
-		}
+		this.featureMatrix = FeatureMatrix.forDistanceFunction(this.data, optn_distanceFunction);
+		this.labelComponents(surface, instancePlaceholders, clusters); //Assign Instance/s to clusters.
 		if (optn_singleInstanceJoinEnvironmentWidth > 0) { //Join clusters with only one Instance.
 			int xMin = -1 * optn_singleInstanceJoinEnvironmentWidth;
 			int xMax = optn_singleInstanceJoinEnvironmentWidth;
@@ -1133,30 +2182,7 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 			}
 		}
 		if (optn_maxClusterNum > 0) { //Merge clusters to match optn_maxClustersNum.
-			ClusterComparator clusterComparator = new ClusterComparator(optn_clusterCompareMode);
-			while (clusters.size() > optn_maxClusterNum) {
-				Cluster candidateOne = null;
-				Cluster candidateTwo = null;
-				double candidateDistance = 0.0;
-				int size2 = clusters.size();
-				for (int i = 0; i < size2; i++) { //Better implementation is possible, but here it is rebuilding the compared results every time clusters were merged. (Can also store all distances and rebuild only when clusters should be merged that were already merged.)
-					Cluster cluster = clusters.get(i);
-					for (int j = i + 1; j < size2; j++) {
-						Cluster compareTo = clusters.get(j);
-						double distance = clusterComparator.compare(cluster, compareTo);
-						if (distance < candidateDistance || candidateOne == null) {
-							candidateOne = cluster;
-							candidateTwo = compareTo;
-							candidateDistance = distance;
-						}
-					}
-				}
-				for (InstancePlaceholder mem : candidateTwo) {
-					candidateOne.add(mem);
-					mem.setCluster(candidateOne); // Do not remove mem from cluster, it disturbs this for loop. The cluster is deleted afterwards anyway.
-				}
-				clusters.remove(candidateTwo);
-			}
+			this.mergeClusters(clusters, new ClusterComparator(optn_clusterCompareMode));
 		}
 		int clusterNum = 0;
 		for (Cluster cluster : clusters) {
@@ -1167,6 +2193,7 @@ public class AntGridClusterer extends AbstractAntGridClusterer {
 		}
 		this.out_numClusters = clusterNum;
 		this.optn_distanceFunction.clean();
+		this.featureMatrix = null;
 		this.data2 = null; //Not needed anymore.
 	}
 	
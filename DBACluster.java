@@ -2,21 +2,33 @@ package weka.clusterers;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 import weka.clusterers.RandomizableClusterer;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
+import weka.core.ChebyshevDistance;
 import weka.core.DistanceFunction;
 import weka.core.EuclideanDistance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.MinkowskiDistance;
 import weka.core.Option;
+import weka.core.SelectedTag;
+import weka.core.Tag;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
@@ -119,9 +131,45 @@ import weka.filters.unsupervised.attribute.ReplaceMissingValues;
  *  After clustering ended the clusters are joined to match this criteria. If
  *  there should not be a limitation set this value to -1.</pre>
  * 
+ * <pre> -nne &lt;num&gt;
+ *  Maximum number of neighbors of an instance. Only the nearest neighbors
+ *  within the view range are kept. Set to -1 to keep all neighbors within the
+ *  view range.
+ *  (default = -1)</pre>
+ * 
  * <pre> -m
  *  Replace missing values.</pre>
  * 
+ * <pre> -ni &lt;type&gt;
+ *  Index used to find the neighbors of an instance. A linear scan compares
+ *  the instance with all instances, a k-d tree or a vantage point tree only
+ *  with the instances close to it. auto chooses a tree by the data. If the
+ *  distance function is not known to be a metric, all instances are scanned.
+ *  (default = linear)</pre>
+ * 
+ * <pre> -pre
+ *  Precompute the neighbors and local similarity values of all instances
+ *  before the ants start.</pre>
+ * 
+ * <pre> -es &lt;num&gt;
+ *  Number of execution slots. How many threads precompute the neighborhoods of
+ *  the instances and call the ants. The ant calls are made in rounds: the ants
+ *  of a round search the neighbor candidates in parallel, then they are called
+ *  in the order of their indexes. The same seed and number of threads give
+ *  bit-identical assignments. Set to 1 to run sequentially.
+ *  (default = 1)</pre>
+ * 
+ * <pre> -ee &lt;slots|antthreads&gt;
+ *  Execution engine. Set to slots to call randomly chosen ants in the
+ *  execution slots. Set to antthreads to give every active ant a fixed number
+ *  of calls per ant cycle and let it search its neighbor candidates in its own
+ *  thread. Virtual threads are used when the Java runtime provides them,
+ *  otherwise the ants share the execution slots. The calls are made in rounds
+ *  like in several execution slots, only the searches run in the threads of
+ *  the ants. The same seed and number of threads give bit-identical
+ *  assignments.
+ *  (default = slots)</pre>
+ * 
  * <!-- options-end -->
  * 
  * @version 0.9
@@ -142,6 +190,36 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 	/** The cluster ID for not assigned clusters. */
 	static final int unassignedClusterID = -1;
 	
+	/** Tag list for the neighborhood index. */
+	public static final int tag_neighborhoodIndexLinear = 0;
+	public static final String tag_neighborhoodIndexLinearLabel = "linear";
+	public static final int tag_neighborhoodIndexKDTree = 1;
+	public static final String tag_neighborhoodIndexKDTreeLabel = "kdtree";
+	public static final int tag_neighborhoodIndexVPTree = 2;
+	public static final String tag_neighborhoodIndexVPTreeLabel = "vptree";
+	public static final int tag_neighborhoodIndexAuto = 3;
+	public static final String tag_neighborhoodIndexAutoLabel = "auto";
+	static final Tag[] tags_neighborhoodIndex = {
+		new Tag(tag_neighborhoodIndexLinear, tag_neighborhoodIndexLinearLabel),
+		new Tag(tag_neighborhoodIndexKDTree, tag_neighborhoodIndexKDTreeLabel),
+		new Tag(tag_neighborhoodIndexVPTree, tag_neighborhoodIndexVPTreeLabel),
+		new Tag(tag_neighborhoodIndexAuto, tag_neighborhoodIndexAutoLabel)
+	};
+	public static final int tag_executionEngineSlots = 0;
+	public static final String tag_executionEngineSlotsLabel = "slots";
+	public static final int tag_executionEngineAntThreads = 1;
+	public static final String tag_executionEngineAntThreadsLabel = "antthreads";
+	static final Tag[] tags_executionEngine = {
+		new Tag(tag_executionEngineSlots, tag_executionEngineSlotsLabel),
+		new Tag(tag_executionEngineAntThreads, tag_executionEngineAntThreadsLabel)
+	};
+	
+	/** Up to this number of columns the automatic neighborhood index choice takes a k-d tree, above a vantage point tree. */
+	static final int neighborhoodIndexKDTreeMaxColumns = 16;
+	
+	/** Number of instances one task of the neighborhood precomputation handles without splitting further. */
+	static final int precomputeTaskSize = 64;
+	
 	/** Colony similarity coefficient alpha. The larger, the more similar the colonies must be. */
 	protected double optn_alpha = 0.37; //-a >= 0 , 0.37
 	
@@ -175,15 +253,56 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 	/** The maximum number of clusters in the result. Set to -1 to not limit the maximum number of clusters. */
 	protected int optn_maxClusterNum = -1; //-cm > 0 || -1
 	
-	/** How many neighbor Instances are evaluated in the neighborhood maximum. It can speed up the algorithm a bit. Set to -1 to always evaluate the whole neighborhood. */
-	protected int optn_maxNumNeighborEvaluation = 37; //-nne //Not yet implemented. A way to make the algorithm faster.
+	/** How many neighbor Instances are evaluated in the neighborhood maximum. Only the nearest ones within the view range are kept, which bounds memory and work in dense regions. Set to -1 to always evaluate the whole neighborhood. */
+	protected int optn_maxNumNeighborEvaluation = -1; //-nne > 0 || -1
 	
 	/** Replace missing values globally? */
 	protected boolean optn_replaceMissing = true; //-m
 	
+	/** Index used to find the neighbors of an instance. */
+	protected int optn_neighborhoodIndex = tag_neighborhoodIndexLinear; //-ni
+	
+	/** Calculate the neighbors and the local similarity of all instances before the ants start? */
+	protected boolean optn_precomputeNeighborhoods = false; //-pre
+	
+	/**
+	 * Number of threads precomputing the neighborhoods and calling the ants.
+	 * <p>
+	 * With more than 1 thread the ant calls of an ant cycle are made in
+	 * rounds, in each round an ant makes at most one call. The ants of a
+	 * round search the neighbor candidates of their positions in parallel
+	 * without changing any state, then they are called one after another in
+	 * the order of their indexes.
+	 * <p>
+	 * Every ant draws its random numbers from its own stream derived from the
+	 * seed and its index. <b>For a given seed and number of threads the
+	 * assignments are bit-identical</b>, no matter how the threads are
+	 * scheduled. With more than 1 thread they do not even depend on the
+	 * number of threads, but they differ from the sequential assignments, as
+	 * the calls are made in another order. The precomputed neighborhoods are
+	 * bit-identical for any number of threads.
+	 */
+	protected int optn_numExecutionSlots = 1; //-es
+	
+	/**
+	 * Call randomly chosen ants in the execution slots, or give every active
+	 * ant a fixed share of the calls and its own random number stream? With
+	 * ant threads each ant searches its neighbor candidates in its own
+	 * (virtual) thread, the calls are made in rounds like in several
+	 * execution slots, so the assignments are bit-identical for a given seed
+	 * and number of threads.
+	 */
+	protected int optn_executionEngine = tag_executionEngineSlots; //-ee
+	
 	/** Instances data to be clustered. */
 	protected Instances data = null; //It must not be altered after the instances were read! Classes refer to it, it is like a global variable/knowledge, and must be initialized first!
 	
+	/** Normalized attribute values of {@link #data} for fast distance calculation, or null when the distance function is not supported. */
+	protected FeatureMatrix featureMatrix = null;
+	
+	/** Index to find the neighbors of an instance, or null when all instances are scanned. */
+	protected NeighborhoodIndex neighborhoodIndex = null;
+	
 	/** Ant colony of ants. */
 	protected AntHill antHill = null;
 	
@@ -717,6 +836,48 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 	}
 	
 	
+	/**
+	 * Tip text provider for the maximum number of neighbors setting.
+	 * 
+	 * @return Text that briefly describes the maximum number of neighbors setting.
+	 */
+	public String maxNumNeighborEvaluationTipText() {
+		return "Only the nearest neighbors within the view range up to this number are regarded in the neighborhood of an instance. Set to -1 to regard all neighbors within the view range.";
+	}
+	
+	
+	/**
+	 * Sets how many of the nearest neighbors within the view range are kept
+	 * in the neighborhood of an instance. Set to -1 to keep all of them.
+	 * 
+	 * @param value how many neighbors an instance has maximum.
+	 * @throws IllegalArgumentException if in debug mode and {@code value} < 1 and not
+	 *                                  -1.
+	 */
+	public void setMaxNumNeighborEvaluation(int value) throws IllegalArgumentException {
+		if (value < 1 && value != -1) {
+			if (m_Debug) {
+				throw new IllegalArgumentException("The maximum number of neighbors must be 1 or greater. Set to -1 to not limit the number of neighbors.");
+			}
+			else {
+				value = -1;
+			}
+		}
+		this.optn_maxNumNeighborEvaluation = value;
+	}
+	
+	
+	/**
+	 * Tells how many of the nearest neighbors within the view range are kept
+	 * in the neighborhood of an instance.
+	 * 
+	 * @return maximum number of neighbors, or -1 if there is no limit.
+	 */
+	public int getMaxNumNeighborEvaluation() {
+		return this.optn_maxNumNeighborEvaluation;
+	}
+	
+	
 	/**
 	 * Tip text provider for the replace missing values setting.
 	 * 
@@ -748,6 +909,163 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 	}
 	
 	
+	/**
+	 * Tip text provider for the neighborhood index setting.
+	 * 
+	 * @return Text that briefly describes the neighborhood index setting.
+	 */
+	public String neighborhoodIndexTipText() {
+		return "Index used to find the neighbors of an instance: scan all instances linearly, use a k-d tree (euclidean or manhattan distance on numeric attributes only), a vantage point tree (distance functions that are metrics), or let the clusterer choose a tree. If no k-d tree can be built, a vantage point tree is used, but only for the euclidean, manhattan, chebyshev or minkowski distance (order at least 1) without missing values. Otherwise all instances are scanned.";
+	}
+	
+	
+	/**
+	 * Sets the index used to find the neighbors of an instance.
+	 * 
+	 * @param value a {@link SelectedTag} naming the neighborhood index.
+	 * @throws IllegalArgumentException if in debug mode and {@code value} is not a
+	 *         known {@link SelectedTag}.
+	 */
+	public void setNeighborhoodIndex(SelectedTag value) throws IllegalArgumentException {
+		if (value.getTags() == tags_neighborhoodIndex) {
+			this.optn_neighborhoodIndex = value.getSelectedTag().getID();
+		}
+		else {
+			if (m_Debug) {
+				throw new IllegalArgumentException("The neighborhood index can only be set to known tags.");
+			}
+			else {
+				this.optn_neighborhoodIndex = tag_neighborhoodIndexLinear;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Tells the index used to find the neighbors of an instance.
+	 * 
+	 * @return the {@link SelectedTag} naming the current neighborhood index.
+	 */
+	public SelectedTag getNeighborhoodIndex() {
+		return new SelectedTag(this.optn_neighborhoodIndex, tags_neighborhoodIndex);
+	}
+	
+	
+	/**
+	 * Tip text provider for the precompute neighborhoods setting.
+	 * 
+	 * @return Text that briefly describes the precompute neighborhoods setting.
+	 */
+	public String precomputeNeighborhoodsTipText() {
+		return "Calculate the neighbors and local similarity values of all instances before the ants start, instead of letting the ants explore them.";
+	}
+	
+	
+	/**
+	 * Sets if the neighbors and local similarity values of all instances are
+	 * calculated before the ants start.
+	 * 
+	 * @param value true, to precompute the neighborhoods.
+	 */
+	public void setPrecomputeNeighborhoods(boolean value) {
+		this.optn_precomputeNeighborhoods = value;
+	}
+	
+	
+	/**
+	 * Tells if the neighbors and local similarity values of all instances are
+	 * calculated before the ants start.
+	 * 
+	 * @return true, if the neighborhoods are precomputed.
+	 */
+	public boolean getPrecomputeNeighborhoods() {
+		return this.optn_precomputeNeighborhoods;
+	}
+	
+	
+	/**
+	 * Tip text provider for the number of execution slots setting.
+	 * 
+	 * @return Text that briefly describes the number of execution slots setting.
+	 */
+	public String numExecutionSlotsTipText() {
+		return "How many threads precompute the neighborhoods and call the ants, set to 1 to run sequentially. The same seed and number of threads give the same assignments.";
+	}
+	
+	
+	/**
+	 * Sets the number of threads that precompute the neighborhoods and call
+	 * the ants.
+	 * 
+	 * @param value number of execution slots
+	 * @throws IllegalArgumentException if {@code value} is smaller than 1 and
+	 *         debug mode is activated.
+	 */
+	public void setNumExecutionSlots(int value) throws IllegalArgumentException {
+		if (value < 1) {
+			if (m_Debug) {
+				throw new IllegalArgumentException("The number of execution slots must be a positive integer value.");
+			}
+			else {
+				value = 1;
+			}
+		}
+		this.optn_numExecutionSlots = value;
+	}
+	
+	
+	/**
+	 * Tells how many threads precompute the neighborhoods and call the ants.
+	 * 
+	 * @return number of execution slots.
+	 */
+	public int getNumExecutionSlots() {
+		return this.optn_numExecutionSlots;
+	}
+	
+	
+	/**
+	 * Tip text provider for the execution engine setting.
+	 * 
+	 * @return Text that briefly describes the execution engine setting.
+	 */
+	public String executionEngineTipText() {
+		return "Call randomly chosen ants in the execution slots, or give every active ant a fixed number of calls per ant cycle and let it search its neighbor candidates in its own (virtual) thread. In both cases the ants are called one after another, so the same seed and number of threads give bit-identical assignments.";
+	}
+	
+	
+	/**
+	 * Sets how the ants are called.
+	 * 
+	 * @param value a {@link SelectedTag} naming the execution engine.
+	 * @throws IllegalArgumentException if in debug mode and {@code value} is not a
+	 *         known {@link SelectedTag}.
+	 */
+	public void setExecutionEngine(SelectedTag value) throws IllegalArgumentException {
+		if (value.getTags() == tags_executionEngine) {
+			this.optn_executionEngine = value.getSelectedTag().getID();
+		}
+		else {
+			if (m_Debug) {
+				throw new IllegalArgumentException("The execution engine can only be set to known tags.");
+			}
+			else {
+				this.optn_executionEngine = tag_executionEngineSlots;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Tells how the ants are called.
+	 * 
+	 * @return the {@link SelectedTag} naming the current execution engine.
+	 */
+	public SelectedTag getExecutionEngine() {
+		return new SelectedTag(this.optn_executionEngine, tags_executionEngine);
+	}
+	
+	
 	/**
 	 * Provides information about the available options for this clusterer.
 	 * 
@@ -767,7 +1085,12 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 		result.addElement(new Option("\tUse extra calculation for the distance in a neighborhood.\n\tWhen set to true, the distances in a neighborhood are divided by the maximum distance of this neighborhood, too. This is usually not necessary.", "d", 0, "-d <num>"));
 		result.addElement(new Option("\tDistance function to use for instance comparison.\n\tThis distance function is used to determine the distance between two instances according to their attributes.\n\t(default = weka.core.EuclideanDistance)", "dist", 1, "-dist <classname and options>"));
 		result.addElement(new Option("\tMaximum number of clusters in the result.\n\tThe cluster number of the result can be limited to this number of clusters. After clustering ended the clusters are joined to match this criteria. If there should not be a limitation set this value to -1.", "cm", 1, "-cm <num>"));
+		result.addElement(new Option("\tMaximum number of neighbors of an instance.\n\tOnly the nearest neighbors within the view range up to this number are kept in the neighborhood of an instance. This bounds memory and work in dense regions. Set to -1 to keep all neighbors within the view range.\n\t(default = -1)", "nne", 1, "-nne <num>"));
 		result.addElement(new Option("\tReplace missing values.\n\tReplace missing values globally.\n\t(default = true)", "m", 0, "-m"));
+		result.addElement(new Option("\tIndex used to find the neighbors of an instance.\n\tlinear compares an instance with all instances, kdtree and vptree only with the instances close to it. The k-d tree requires the euclidean or manhattan distance on numeric attributes, otherwise a vantage point tree is used. The vantage point tree requires a distance function known to be a metric, otherwise all instances are scanned. auto chooses a tree by the data. When the distances are aligned, all instances are scanned.\n\t(default = linear)", "ni", 1, "-ni <linear|kdtree|vptree|auto>"));
+		result.addElement(new Option("\tPrecompute the neighborhoods.\n\tCalculate the neighbors and local similarity values of all instances before the ants start. The ants then only cluster the instances.\n\t(default = false)", "pre", 0, "-pre"));
+		result.addElement(new Option("\tNumber of execution slots.\n\tHow many threads precompute the neighborhoods of the instances and call the ants. The ant calls are made in rounds: the ants of a round search the neighbor candidates in parallel, then they are called in the order of their indexes. The same seed and number of threads give bit-identical assignments. Set to 1 to run sequentially.\n\t(default = 1)", "es", 1, "-es <num>"));
+		result.addElement(new Option("\tExecution engine.\n\tSet to slots to call randomly chosen ants in the execution slots. Set to antthreads to give every active ant a fixed number of calls per ant cycle and let it search its neighbor candidates in its own thread. Virtual threads are used when the Java runtime provides them, otherwise the ants share the execution slots. The calls are made in rounds like in several execution slots, only the searches run in the threads of the ants. The same seed and number of threads give bit-identical assignments.\n\t(default = slots)", "ee", 1, "-ee <slots|antthreads>"));
 		return result.elements();
 	}
 	
@@ -844,8 +1167,42 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			this.setMaxClusterNum(Integer.parseInt(temp));
 		}
 		
+		temp = Utils.getOption("nne", options);
+		if (temp.length() > 0) {
+			this.setMaxNumNeighborEvaluation(Integer.parseInt(temp));
+		}
+		
 		this.setReplaceMissing(Utils.getFlag("m", options));
 		
+		temp = Utils.getOption("ni", options);
+		if (temp.compareTo(tag_neighborhoodIndexKDTreeLabel) == 0) {
+			this.setNeighborhoodIndex(new SelectedTag(tag_neighborhoodIndexKDTree, tags_neighborhoodIndex));
+		}
+		else if (temp.compareTo(tag_neighborhoodIndexVPTreeLabel) == 0) {
+			this.setNeighborhoodIndex(new SelectedTag(tag_neighborhoodIndexVPTree, tags_neighborhoodIndex));
+		}
+		else if (temp.compareTo(tag_neighborhoodIndexAutoLabel) == 0) {
+			this.setNeighborhoodIndex(new SelectedTag(tag_neighborhoodIndexAuto, tags_neighborhoodIndex));
+		}
+		else {
+			this.setNeighborhoodIndex(new SelectedTag(tag_neighborhoodIndexLinear, tags_neighborhoodIndex));
+		}
+		
+		this.setPrecomputeNeighborhoods(Utils.getFlag("pre", options));
+		
+		temp = Utils.getOption("es", options);
+		if (temp.length() > 0) {
+			this.setNumExecutionSlots(Integer.parseInt(temp));
+		}
+		
+		temp = Utils.getOption("ee", options);
+		if (temp.compareTo(tag_executionEngineAntThreadsLabel) == 0) {
+			this.setExecutionEngine(new SelectedTag(tag_executionEngineAntThreads, tags_executionEngine));
+		}
+		else {
+			this.setExecutionEngine(new SelectedTag(tag_executionEngineSlots, tags_executionEngine));
+		}
+		
 		super.setOptions(options);
 		Utils.checkForRemainingOptions(options);
 		
@@ -897,10 +1254,34 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 		result.add("-cm");
 		result.add("" + this.getMaxClusterNum());
 		
+		result.add("-nne");
+		result.add("" + this.getMaxNumNeighborEvaluation());
+		
 		if (optn_replaceMissing) {
 			result.add("-m");
 		}
 		
+		result.add("-ni");
+		switch (this.optn_neighborhoodIndex) {
+			case tag_neighborhoodIndexLinear: result.add(tag_neighborhoodIndexLinearLabel); break;
+			case tag_neighborhoodIndexKDTree: result.add(tag_neighborhoodIndexKDTreeLabel); break;
+			case tag_neighborhoodIndexVPTree: result.add(tag_neighborhoodIndexVPTreeLabel); break;
+			case tag_neighborhoodIndexAuto: result.add(tag_neighborhoodIndexAutoLabel); break;
+		}
+		
+		if (optn_precomputeNeighborhoods) {
+			result.add("-pre");
+		}
+		
+		result.add("-es");
+		result.add("" + this.getNumExecutionSlots());
+		
+		result.add("-ee");
+		switch (this.optn_executionEngine) {
+			case tag_executionEngineSlots: result.add(tag_executionEngineSlotsLabel); break;
+			case tag_executionEngineAntThreads: result.add(tag_executionEngineAntThreadsLabel); break;
+		}
+		
 		Collections.addAll(result, super.getOptions());
 		return result.toArray(new String[result.size()]);
 		
@@ -976,12 +1357,29 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			/** The ClusterNumGenerator object of this Clusters instance. */
 			protected ClusterNumGenerator clusterNumGenerator;
 			
+			/**
+			 * Parent slot of each slot in the disjoint-set forest of merged
+			 * clusters. Each {@linkplain Cluster} made by this object has its
+			 * own slot, see {@link Cluster#slot}. A slot is a root, if it is
+			 * its own parent.
+			 */
+			protected int[] parent;
+			
+			/** Number of slots in the set of each root slot. */
+			protected int[] setSize;
+			
+			/** The {@linkplain Cluster} the set of each root slot stands for. */
+			protected Cluster[] identity;
+			
 			/** The default constructor. */
 			public Clusters() {
 				this.clusters = new ArrayList<Cluster>();
 				this.noiseCluster = new Cluster(unassignedClusterID);
 				this.clusterNumGenerator = new ClusterNumGenerator();
 				this.clusterNumGenerator.reset();
+				this.parent = new int[16];
+				this.setSize = new int[16];
+				this.identity = new Cluster[16];
 			}
 			
 			
@@ -992,11 +1390,146 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 */
 			public Cluster makeNewCluster() {
 				Cluster cluster = new Cluster(this.clusterNumGenerator.next());
+				int slot = this.clusters.size();
+				if (slot == this.parent.length) {
+					this.parent = Arrays.copyOf(this.parent, slot * 2);
+					this.setSize = Arrays.copyOf(this.setSize, slot * 2);
+					this.identity = Arrays.copyOf(this.identity, slot * 2);
+				}
+				cluster.slot = slot;
+				this.parent[slot] = slot;
+				this.setSize[slot] = 1;
+				this.identity[slot] = cluster;
 				this.clusters.add(cluster);
 				return cluster;
 			}
 			
 			
+			/**
+			 * Finds the root slot of the set a slot belongs to. The path is
+			 * halved on the way, so later searches are faster.
+			 * 
+			 * @param slot the slot to find the root for.
+			 * @return the root slot.
+			 */
+			protected int find(int slot) {
+				int[] parent = this.parent;
+				while (parent[slot] != slot) {
+					parent[slot] = parent[parent[slot]];
+					slot = parent[slot];
+				}
+				return slot;
+			}
+			
+			
+			/**
+			 * Tells the {@linkplain Cluster} a cluster was merged into. Clusters,
+			 * that were not merged into other clusters, stand for
+			 * themselves.
+			 * 
+			 * @param cluster the cluster to resolve, it may be null.
+			 * @return the cluster {@code cluster} currently belongs to.
+			 */
+			public Cluster resolve(Cluster cluster) {
+				if (!(cluster instanceof Cluster) || cluster.slot < 0) { //The noise cluster is never merged.
+					return cluster;
+				}
+				return this.identity[this.find(cluster.slot)];
+			}
+			
+			
+			/**
+			 * Merges the {@linkplain Cluster} {@code from} into the cluster
+			 * {@code to}. All members of {@code from} belong to {@code to}
+			 * afterwards and {@code from} remains empty.
+			 * <p>
+			 * The members are not moved one by one, but the sets of both
+			 * clusters are united, the smaller set is attached to the
+			 * larger one. If one of the clusters was merged into another
+			 * one already, the clusters they were merged into are merged.
+			 * 
+			 * @param from the cluster to dissolve.
+			 * @param to the cluster to merge into.
+			 */
+			public void merge(Cluster from, Cluster to) {
+				int fromRoot = this.find(from.slot);
+				int toRoot = this.find(to.slot);
+				if (fromRoot == toRoot) {
+					return;
+				}
+				from = this.identity[fromRoot];
+				to = this.identity[toRoot];
+				int root = toRoot;
+				if (this.setSize[fromRoot] > this.setSize[toRoot]) {
+					root = fromRoot;
+					this.parent[toRoot] = fromRoot;
+				}
+				else {
+					this.parent[fromRoot] = toRoot;
+				}
+				this.setSize[root] = this.setSize[fromRoot] + this.setSize[toRoot];
+				this.identity[root] = to;
+			}
+			
+			
+			/**
+			 * Counts the members of a {@linkplain Cluster}. Each Cluster object
+			 * counts the members added to it, also after it was merged, so the
+			 * counts of all clusters merged into {@code cluster} are summed up.
+			 * 
+			 * @param cluster the cluster to count the members for.
+			 * @return number of members of {@code cluster}, 0 if it was merged
+			 *         into another cluster.
+			 */
+			public int countMembers(Cluster cluster) {
+				int root = this.find(cluster.slot);
+				if (this.identity[root] != cluster) {
+					return 0;
+				}
+				int count = 0;
+				for (Cluster member : this.clusters) {
+					if (this.find(member.slot) == root) {
+						count += member.size;
+					}
+				}
+				return count;
+			}
+			
+			
+			/**
+			 * Collects the members of all {@linkplain Cluster} objects, so they
+			 * can be iterated. While clustering only the member counts are
+			 * kept.
+			 * 
+			 * @param instancePlaceholders all {@linkplain InstancePlaceholder} objects.
+			 */
+			public void collectMembers(InstancePlaceholders instancePlaceholders) {
+				for (Cluster cluster : this.clusters) {
+					cluster.numCollected = 0;
+				}
+				this.noiseCluster.numCollected = 0;
+				for (InstancePlaceholder ip : instancePlaceholders) { //Count first.
+					Cluster cluster = ip.getCluster();
+					if (cluster instanceof Cluster) {
+						cluster.numCollected++;
+					}
+				}
+				for (Cluster cluster : this.clusters) {
+					cluster.members = new InstancePlaceholder[cluster.numCollected];
+					cluster.numCollected = 0;
+				}
+				this.noiseCluster.members = new InstancePlaceholder[this.noiseCluster.numCollected];
+				this.noiseCluster.numCollected = 0;
+				for (InstancePlaceholder ip : instancePlaceholders) {
+					Cluster cluster = ip.getCluster();
+					if (cluster instanceof Cluster) {
+						cluster.members[cluster.numCollected] = ip;
+						cluster.numCollected++;
+					}
+				}
+			}
+			
+			
 			/**
 			 * Tell how many clusters are currently managed by this Clusters
 			 * object.
@@ -1074,8 +1607,24 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 */
 			protected InstancePlaceholder start;
 			
-			/** All {@linkplain InstancePlaceholder} members of this cluster. */
-			protected ArrayList<InstancePlaceholder> members;
+			/** Slot of this cluster in the disjoint-set forest of {@linkplain Clusters}, -1 for the noise cluster. */
+			protected int slot = -1;
+			
+			/**
+			 * Number of members added to this Cluster object. Merging does not
+			 * move the counts, see {@link #size()}.
+			 */
+			protected int size;
+			
+			/**
+			 * The {@linkplain InstancePlaceholder} members of this cluster, as
+			 * collected by {@link Clusters#collectMembers(InstancePlaceholders)}.
+			 * Members are not stored while clustering.
+			 */
+			protected InstancePlaceholder[] members;
+			
+			/** Number of collected {@link #members}. */
+			protected int numCollected;
 			
 			/**
 			 * The default constructor.
@@ -1084,7 +1633,9 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 */
 			public Cluster(int ID) {
 				this.ID = ID;
-				this.members = new ArrayList<InstancePlaceholder>();
+				this.size = 0;
+				this.members = new InstancePlaceholder[0];
+				this.numCollected = 0;
 			}
 			
 			
@@ -1146,16 +1697,24 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			/**
 			 * Tells the size of this cluster, namely how many
 			 * {@linkplain InstancePlaceholder} objects this cluster contains.
+			 * The counts of all clusters merged into this one are summed up,
+			 * so this takes a run over all clusters.
 			 * 
 			 * @return member count of this cluster.
 			 */
 			public int size() {
-				return this.members.size();
+				if (this.slot < 0) { //The noise cluster is never merged.
+					return this.size;
+				}
+				return clusters.countMembers(this);
 			}
 			
 			
 			/**
-			 * Adds a new {@linkplain InstancePlaceholder} to this cluster.
+			 * Adds a new {@linkplain InstancePlaceholder} to this cluster. Only
+			 * the member count is changed, the InstancePlaceholder must
+			 * point to this cluster itself. The count stays with this Cluster
+			 * object, even if it was merged into another cluster meanwhile.
 			 * 
 			 * @param mem the InstancePlaceholder to add.
 			 */
@@ -1163,17 +1722,7 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 				if (!(this.start instanceof InstancePlaceholder)) {
 					this.start = mem;
 				}
-				this.members.add(mem);
-			}
-			
-			
-			/**
-			 * Removes a member from this cluster.
-			 * 
-			 * @param mem the {@linkplain InstancePlaceholder} to remove from this cluster.
-			 */
-			public void remove(InstancePlaceholder mem) {
-				this.members.remove(mem);
+				this.size++;
 			}
 			
 			
@@ -1185,7 +1734,7 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 * @return true if this cluster contains {@code mem}, false otherwise.
 			 */
 			public boolean contains(InstancePlaceholder mem) {
-				return this.members.contains(mem);
+				return this.equals(mem.getCluster());
 			}
 			
 			
@@ -1213,28 +1762,30 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 */
 			@Override
 			public String toString() {
-				return "[c:" + this.ID + "," + this.members.size() + "]";
+				return "[c:" + this.ID + "," + this.size + "]";
 			}
 			
 			
 			/**
-			 * Iterates over all {@linkplain InstancePlaceholder} objects managed by this object.
+			 * Iterates over all {@linkplain InstancePlaceholder} objects
+			 * managed by this object, as they were collected last.
 			 * 
 			 * @return an {@linkplain Iterator} over InstancePlaceholder objects.
+			 * @see Clusters#collectMembers(InstancePlaceholders)
 			 */
 			@Override
 			public Iterator<InstancePlaceholder> iterator() {
 				return new Iterator<InstancePlaceholder>() {
 					private int position = 0;
-					@SuppressWarnings("unchecked")
-					private ArrayList<InstancePlaceholder> list = (ArrayList<InstancePlaceholder>) members.clone();
+					private InstancePlaceholder[] list = members;
+					private int size = numCollected;
 					@Override
 					public boolean hasNext() {
-						return position < list.size();
+						return position < size;
 					}
 					@Override
 					public InstancePlaceholder next() {
-						InstancePlaceholder member = list.get(position);
+						InstancePlaceholder member = list[position];
 						position++;
 						return member;
 					}
@@ -1259,8 +1810,11 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			/** The {@linkplain InstancePlaceholder} objects managed by this class. */
 			protected InstancePlaceholder[] instancePlaceholders;
 			
-			/** All {@linkplain InstancePlaceholder} objects, that do not know their neighbors yet, are stored here again. */
-			protected ArrayList<InstancePlaceholder> neighborsUnexploredList;
+			/** IDs of all {@linkplain InstancePlaceholder} objects, that do not know their neighbors yet. */
+			protected BitSet neighborsUnexploredList;
+			
+			/** The neighborhood relations of all managed {@linkplain InstancePlaceholder} objects. */
+			protected NeighborhoodGraph neighborhoodGraph;
 			
 			/**
 			 * The default constructor of this class.
@@ -1271,13 +1825,13 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 				int size = data.size();
 				this.data = data;
 				this.instancePlaceholders = new InstancePlaceholder[size];
-				this.neighborsUnexploredList = new ArrayList<InstancePlaceholder>();
+				this.neighborsUnexploredList = new BitSet(size);
+				this.neighborsUnexploredList.set(0, size);
+				this.neighborhoodGraph = new NeighborhoodGraph(size);
 				for (int i = 0; i < size; i++) {
 					InstancePlaceholder ip = new InstancePlaceholder(i, this.data.get(i), this);
 					this.instancePlaceholders[i] = ip;
-					this.neighborsUnexploredList.add(ip);
 				}
-				this.neighborsUnexploredList.trimToSize();
 			}
 			
 			
@@ -1303,6 +1857,20 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			}
 			
 			
+			/**
+			 * Returns a random {@linkplain InstancePlaceholder} from the set of managed
+			 * InstancePlaceholder objects, chosen with the given random number
+			 * stream.
+			 * 
+			 * @param random the random number stream to choose with, e.g. the
+			 *        own stream of an {@linkplain Ant}
+			 * @return a randomly selected InstancePlaceholder.
+			 */
+			public InstancePlaceholder getRandomInstancePlaceholder(SplittableRandom random) {
+				return this.instancePlaceholders[random.nextInt(this.instancePlaceholders.length)];
+			}
+			
+			
 			/**
 			 * Size of this InstancePlaceholders object, namely how many
 			 * {@linkplain InstancePlaceholder} objects this object contains.
@@ -1338,15 +1906,31 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 * calculating the neighbors does not alter the algorithm itself, it
 			 * would still be the same if the ant iterates over all other
 			 * InstancePlaceholder objects when calculating the neighbors.
+			 * <p>
+			 * The list is a {@linkplain BitSet} of IDs, so removing an
+			 * InstancePlaceholder takes constant time and iterating with
+			 * {@link BitSet#nextSetBit(int)} visits the IDs in ascending
+			 * order. It must not be changed by the caller.
 			 * 
-			 * @return an {@linkplain ArrayList} of {@linkplain InstancePlaceholder} objects, that do not
+			 * @return the IDs of the {@linkplain InstancePlaceholder} objects, that do not
 			 * know their neighbors.
 			 */
-			public ArrayList<InstancePlaceholder> getUnexploredNeighborhoodList() {
+			public BitSet getUnexploredNeighborhoodList() {
 				return this.neighborsUnexploredList;
 			}
 			
 			
+			/**
+			 * Returns the neighborhood relations of all managed
+			 * {@linkplain InstancePlaceholder} objects.
+			 * 
+			 * @return the {@linkplain NeighborhoodGraph} of this object.
+			 */
+			public NeighborhoodGraph getNeighborhoodGraph() {
+				return this.neighborhoodGraph;
+			}
+			
+			
 			/**
 			 * Notifies this object, that the {@linkplain InstancePlaceholder} {@code ip} does know its
 			 * neighbors now. So {@code ip} can be excluded in calculating the
@@ -1356,7 +1940,18 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 * @see #getUnexploredNeighborhoodList()
 			 */
 			public void notifyNeighborKnown(InstancePlaceholder ip) {
-				this.neighborsUnexploredList.remove(ip);
+				this.neighborsUnexploredList.clear(ip.getID());
+			}
+			
+			
+			/**
+			 * Notifies this object, that all {@linkplain InstancePlaceholder}
+			 * objects know their neighbors now.
+			 * 
+			 * @see #notifyNeighborKnown(InstancePlaceholder)
+			 */
+			public void notifyAllNeighborsKnown() {
+				this.neighborsUnexploredList.clear();
 			}
 			
 			
@@ -1368,7 +1963,7 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 */
 			@Override
 			public String toString() {
-				return "[ips:" + this.instancePlaceholders.length + "," + this.neighborsUnexploredList.size() + "]";
+				return "[ips:" + this.instancePlaceholders.length + "," + this.neighborsUnexploredList.cardinality() + "]";
 			}
 			
 			
@@ -1419,9 +2014,6 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			/** Cluster assigned to this object. */
 			protected Cluster cluster;
 			
-			/** List of all neighbors. */
-			protected ArrayList<InstancePlaceholderNeighborTag> neighbors;
-			
 			/** Indicates if this InstancePlaceholder object already knows its neighbors. */
 			protected boolean neighborsAreKnown = false;
 			
@@ -1459,7 +2051,6 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 				this.instancePlaceholders = instancePlaceholders;
 				this.instance = instance;
 				this.cluster = null;
-				this.neighbors = new ArrayList<InstancePlaceholderNeighborTag>();
 				this.neighborsAreKnown = false;
 				this.foi = 0.0;
 				this.foiIsCalculated = false;
@@ -1508,7 +2099,8 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 *         clustered.
 			 */
 			public boolean hasNoiseCluster() {
-				return this.cluster instanceof Cluster && this.cluster.isNoiseCluster();
+				Cluster cluster = this.cluster;
+				return cluster instanceof Cluster && cluster.isNoiseCluster();
 			}
 			
 			
@@ -1525,6 +2117,24 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			}
 			
 			
+			/**
+			 * Sets the {@linkplain Cluster} to which this InstancePlaceholder
+			 * belongs, if it does not belong to a cluster yet.
+			 * 
+			 * @param cluster the cluster to which this InstancePlaceholder
+			 *        should belong to.
+			 * @return true, if the cluster was set, false if this
+			 *         InstancePlaceholder belongs to a cluster already.
+			 */
+			public boolean claimCluster(Cluster cluster) {
+				if (this.cluster instanceof Cluster) {
+					return false;
+				}
+				this.cluster = cluster;
+				return true;
+			}
+			
+			
 			/**
 			 * Tells the {@linkplain Cluster} to which this InstancePlaceholder belongs.
 			 * 
@@ -1532,7 +2142,7 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 *         is not clustered.
 			 */
 			public Cluster getCluster() {
-				return this.cluster;
+				return clusters.resolve(this.cluster);
 			}
 			
 			
@@ -1559,18 +2169,15 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 * in {@linkplain Instances}). For more information the annotations
 			 * for {@linkplain InstancePlaceholders#getUnexploredNeighborhoodList()}.
 			 * 
-			 * @param neighbor a neighborhood relation found for this
-			 *        InstancePlaceholder.
+			 * @param neighbor the neighbor found for this InstancePlaceholder.
+			 * @param distance distance to that neighbor.
 			 * @see InstancePlaceholders#getUnexploredNeighborhoodList()
 			 */
-			public void preTellNeighbor(InstancePlaceholderNeighborTag neighbor) {
+			public void preTellNeighbor(InstancePlaceholder neighbor, double distance) {
 				if (this.neighborsAreKnown) {
 					return;
 				}
-				if (this.neighbors.contains(neighbor)) {
-					return;
-				}
-				this.neighbors.add(neighbor);
+				this.instancePlaceholders.getNeighborhoodGraph().preTell(this.ID, neighbor.getID(), distance);
 			}
 			
 			
@@ -1579,23 +2186,26 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 * final neighborhood list, containing all neighbors must be
 			 * provided. Then it is assumed that all neighbors are known.
 			 * 
-			 * @param neighbors complete list of all neighborhood relations.
+			 * @param neighbors complete list of all neighborhood relations,
+			 *        sorted by distance.
 			 */
-			public void setNeighbors(ArrayList<InstancePlaceholderNeighborTag> neighbors) {
-				this.neighbors = neighbors;
+			public void setNeighbors(NeighborList neighbors) {
+				this.instancePlaceholders.getNeighborhoodGraph().setRow(this.ID, neighbors);
 				this.neighborsAreKnown = true;
 			}
 			
 			
 			/**
-			 * Tells all currently known neighborhood relations of this
-			 * InstancePlaceholder.
+			 * Tells the neighbors other InstancePlaceholder objects told
+			 * this InstancePlaceholder in advance, as long as it does not
+			 * know all its neighbors.
 			 * 
-			 * @return An {@linkplain ArrayList} containing all currently known neighborhood
-			 * relations.
+			 * @return the pre told neighborhood relations, null if there are
+			 *         none or all neighbors are known.
+			 * @see #preTellNeighbor(InstancePlaceholder, double)
 			 */
-			public ArrayList<InstancePlaceholderNeighborTag> getNeighbors() {
-				return this.neighbors;
+			public NeighborList getPreToldNeighbors() {
+				return this.instancePlaceholders.getNeighborhoodGraph().getPreTold(this.ID);
 			}
 			
 			
@@ -1606,7 +2216,7 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 * @return neighbor count of this InstancePlaceholder.
 			 */
 			public int getNeighborhoodSize() {
-				return this.neighbors.size();
+				return this.instancePlaceholders.getNeighborhoodGraph().size(this.ID);
 			}
 			
 			
@@ -1695,78 +2305,390 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 */
 			@Override
 			public Iterator<InstancePlaceholder> iterator() {
-				return new Iterator<InstancePlaceholder>() {
-					private int position = 0;
-					@SuppressWarnings("unchecked")
-					private ArrayList<InstancePlaceholderNeighborTag> list = (ArrayList<InstancePlaceholderNeighborTag>) neighbors.clone();
-					@Override
-					public boolean hasNext() {
-						return position < list.size();
-					}
-					@Override
-					public InstancePlaceholder next() {
-						InstancePlaceholder ip = list.get(position).instancePlaceholder;
-						position++;
-						return ip;
+				final NeighborhoodGraph graph = this.instancePlaceholders.getNeighborhoodGraph();
+				final int ID = this.ID;
+				if (!this.neighborsAreKnown()) {
+					NeighborList preTold = graph.getPreTold(ID);
+					final int[] IDs = new int[preTold instanceof NeighborList ? preTold.size() : 0];
+					for (int i = 0; i < IDs.length; i++) {
+						IDs[i] = preTold.getID(i);
 					}
-				};
+					return new Iterator<InstancePlaceholder>() {
+						private int position = 0;
+						@Override
+						public boolean hasNext() {
+							return position < IDs.length;
+						}
+						@Override
+						public InstancePlaceholder next() {
+							InstancePlaceholder ip = instancePlaceholders.get(IDs[position]);
+							position++;
+							return ip;
+						}
+					};
+				}
+				return new Iterator<InstancePlaceholder>() { //The row does not change anymore, so it can be read directly.
+						private int position = 0;
+						private int size = graph.size(ID);
+						@Override
+						public boolean hasNext() {
+							return position < size;
+						}
+						@Override
+						public InstancePlaceholder next() {
+							InstancePlaceholder ip = instancePlaceholders.get(graph.getNeighborID(ID, position));
+							position++;
+							return ip;
+						}
+					};
 			}
 			
 		}
 		
 		
 		/**
-		 * Class for storing a neighborhood relation. A neighborhood relation
-		 * consists of an {@linkplain InstancePlaceholder} (the neighbor) and a double value
-		 * representing the distance to that neighbor.
+		 * Growable list of neighborhood relations of one
+		 * {@linkplain InstancePlaceholder}, holding the IDs of the neighbors
+		 * and the distances to them in two arrays.
 		 * <p>
 		 * This is a passive class, that means this class is used by other
 		 * classes, but does not act on its own.
 		 */
-		protected final class InstancePlaceholderNeighborTag {
+		protected class NeighborList {
 			
-			/** Neighbor of the relation. */
-			public InstancePlaceholder instancePlaceholder;
+			/** IDs of the neighbors. */
+			protected int[] IDs;
 			
-			/** Distance to the neighbor {@linkplain #instancePlaceholder}. */
-			public double distance;
+			/** Distances to the neighbors, belonging to {@link #IDs}. */
+			protected float[] distances;
+			
+			/** Number of neighbors. */
+			protected int size;
+			
+			
+			/** The default constructor of this class. */
+			public NeighborList() {
+				this.IDs = new int[8];
+				this.distances = new float[8];
+				this.size = 0;
+			}
 			
 			
 			/**
-			 * The default constructor of this class.
+			 * Adds a neighborhood relation.
 			 * 
-			 * @param ip neighbor of the neighborhood relation.
-			 * @param distance distance to that neighbor {@code ip}.
+			 * @param ID ID of the neighbor
+			 * @param distance distance to that neighbor
 			 */
-			public InstancePlaceholderNeighborTag(InstancePlaceholder ip, double distance) {
-				this.instancePlaceholder = ip;
-				this.distance = distance;
+			public void add(int ID, double distance) {
+				if (this.size == this.IDs.length) {
+					this.IDs = Arrays.copyOf(this.IDs, this.size * 2);
+					this.distances = Arrays.copyOf(this.distances, this.size * 2);
+				}
+				this.IDs[this.size] = ID;
+				this.distances[this.size] = (float) distance;
+				this.size++;
 			}
 			
 			
-			//			public InstancePlaceholder getInstancePlaceholder() {
-			//				return this.instancePlaceholder;
-			//			}
+			/**
+			 * Adds a neighborhood relation, but keeps only the {@code limit}
+			 * nearest neighbors. As long as the limit is reached, the list is
+			 * a max-heap by distance, so the farthest neighbor can be replaced
+			 * quickly. A neighbor as far as the farthest one is not added.
+			 * Sort the list afterwards to get the neighbors in order.
+			 * 
+			 * @param ID ID of the neighbor
+			 * @param distance distance to that neighbor
+			 * @param limit maximum number of neighbors, -1 for no limit. All
+			 *        neighbors of this list must be added with the same limit.
+			 */
+			public void offer(int ID, double distance, int limit) {
+				if (limit < 0) {
+					this.add(ID, distance);
+					return;
+				}
+				if (this.size < limit) {
+					this.add(ID, distance);
+					int child = this.size - 1;
+					while (child > 0) { //Sift up.
+						int parent = (child - 1) >>> 1;
+						if (!(this.distances[parent] < this.distances[child])) {
+							break;
+						}
+						this.swap(parent, child);
+						child = parent;
+					}
+					return;
+				}
+				float value = (float) distance;
+				if (this.size == 0 || !(value < this.distances[0])) {
+					return;
+				}
+				this.IDs[0] = ID;
+				this.distances[0] = value;
+				int parent = 0;
+				while (true) { //Sift down.
+					int child = 2 * parent + 1;
+					if (child >= this.size) {
+						break;
+					}
+					if (child + 1 < this.size && this.distances[child + 1] > this.distances[child]) {
+						child++;
+					}
+					if (!(this.distances[child] > this.distances[parent])) {
+						break;
+					}
+					this.swap(parent, child);
+					parent = child;
+				}
+			}
 			
 			
-			//			public double getDistance() {
-			//				return this.distance;
-			//			}
+			/**
+			 * Swaps two neighborhood relations.
+			 * 
+			 * @param i position of the first relation
+			 * @param j position of the second relation
+			 */
+			protected void swap(int i, int j) {
+				int ID = this.IDs[i];
+				this.IDs[i] = this.IDs[j];
+				this.IDs[j] = ID;
+				float distance = this.distances[i];
+				this.distances[i] = this.distances[j];
+				this.distances[j] = distance;
+			}
 			
 			
 			/**
-			 * Tells if this object equals the given object, by customized criteria.
+			 * Tells the number of neighborhood relations in this list.
 			 * 
-			 * @param obj the object to compare with.
-			 * @return true, if this object equals the compared {@code obj} object.
-			 * @see java.lang.Object#equals
+			 * @return number of neighbors.
+			 */
+			public int size() {
+				return this.size;
+			}
+			
+			
+			/**
+			 * Tells the ID of a neighbor.
+			 * 
+			 * @param i position in this list
+			 * @return ID of the neighbor.
+			 */
+			public int getID(int i) {
+				return this.IDs[i];
+			}
+			
+			
+			/**
+			 * Tells the distance to a neighbor.
+			 * 
+			 * @param i position in this list
+			 * @return distance to the neighbor.
+			 */
+			public float getDistance(int i) {
+				return this.distances[i];
+			}
+			
+			
+			/**
+			 * Orders the neighborhood relations by their distance. Relations
+			 * with the same distance keep their order.
+			 */
+			public void sortByDistance() {
+				long[] keys = new long[this.size];
+				for (int i = 0; i < this.size; i++) { //Bits of non negative floats have the same order as the floats.
+					keys[i] = ((long) Float.floatToIntBits(this.distances[i] + 0.0f) << 32) | i;
+				}
+				Arrays.sort(keys);
+				int[] IDs = new int[this.size];
+				float[] distances = new float[this.size];
+				for (int i = 0; i < this.size; i++) {
+					int from = (int) keys[i];
+					IDs[i] = this.IDs[from];
+					distances[i] = this.distances[from];
+				}
+				this.IDs = IDs;
+				this.distances = distances;
+			}
+			
+			
+			/**
+			 * Returns a string representation of this object.
+			 * 
+			 * @return a string representing this object.
+			 * @see java.lang.Object#toString()
 			 */
 			@Override
-			public boolean equals(Object obj) {
-				if (!(obj instanceof InstancePlaceholderNeighborTag)) {
-					return false;
+			public String toString() {
+				return "[nl:" + this.size + "]";
+			}
+			
+		}
+		
+		
+		/**
+		 * Neighborhood relations of all {@linkplain InstancePlaceholder}
+		 * objects, stored as compressed sparse rows.
+		 * <p>
+		 * The row of an InstancePlaceholder holds the IDs of its neighbors and
+		 * the distances to them, sorted by distance. All rows are stored one
+		 * after another in one {@code int[]} and one {@code float[]}, so an
+		 * edge takes eight bytes instead of a relation object. Rows are
+		 * appended in the order the InstancePlaceholder objects learn all
+		 * their neighbors, {@link #rowStart} tells where each row begins. A
+		 * stored row is not changed anymore. Until then the neighbors told in
+		 * advance are collected in a {@linkplain NeighborList}.
+		 */
+		protected class NeighborhoodGraph {
+			
+			/** Index of the first edge of each row, -1 as long as the row is not stored. */
+			protected int[] rowStart;
+			
+			/** Number of edges of each row. */
+			protected int[] rowLength;
+			
+			/** IDs of the neighbors, row by row. */
+			protected int[] neighborIDs;
+			
+			/** Distances to the neighbors, belonging to {@link #neighborIDs}. */
+			protected float[] distances;
+			
+			/** Number of stored edges. */
+			protected int numEdges;
+			
+			/** Neighbors told in advance for each row that is not stored yet. */
+			protected NeighborList[] preTold;
+			
+			
+			/**
+			 * The default constructor of this class.
+			 * 
+			 * @param size number of {@linkplain InstancePlaceholder} objects.
+			 */
+			public NeighborhoodGraph(int size) {
+				this.rowStart = new int[size];
+				Arrays.fill(this.rowStart, -1);
+				this.rowLength = new int[size];
+				this.neighborIDs = new int[Math.max(16, size)];
+				this.distances = new float[this.neighborIDs.length];
+				this.numEdges = 0;
+				this.preTold = new NeighborList[size];
+			}
+			
+			
+			/**
+			 * Tells a row a neighbor in advance, if it does not know all its
+			 * neighbors yet. Each {@linkplain InstancePlaceholder} explores its
+			 * neighborhood only once, so a neighbor is told a row at most
+			 * once and is not checked for duplicates. When the number of
+			 * neighbors is limited, only the nearest ones told are kept, as
+			 * the others can not be among the nearest neighbors of the row.
+			 * 
+			 * @param ID ID of the row
+			 * @param neighborID ID of the neighbor
+			 * @param distance distance to the neighbor
+			 */
+			public void preTell(int ID, int neighborID, double distance) {
+				if (this.rowStart[ID] >= 0) {
+					return;
+				}
+				NeighborList list = this.preTold[ID];
+				if (!(list instanceof NeighborList)) {
+					list = new NeighborList();
+					this.preTold[ID] = list;
+				}
+				list.offer(neighborID, distance, optn_maxNumNeighborEvaluation);
+			}
+			
+			
+			/**
+			 * Tells the neighbors told a row in advance.
+			 * 
+			 * @param ID ID of the row
+			 * @return the neighbors told in advance, null if there are none
+			 *         or the row is already stored.
+			 */
+			public NeighborList getPreTold(int ID) {
+				return this.preTold[ID];
+			}
+			
+			
+			/**
+			 * Stores the complete row of an {@linkplain InstancePlaceholder}.
+			 * The neighbors told in advance are dropped.
+			 * 
+			 * @param ID ID of the row
+			 * @param neighbors all neighbors, sorted by distance
+			 * @throws IllegalStateException if the row is already stored
+			 *         or there are too many edges.
+			 */
+			public synchronized void setRow(int ID, NeighborList neighbors) throws IllegalStateException {
+				if (this.rowStart[ID] >= 0) {
+					throw new IllegalStateException("The neighbors of the instancePlaceholder " + ID + " are already stored.");
 				}
-				return this.instancePlaceholder.getID() == ((InstancePlaceholderNeighborTag) obj).instancePlaceholder.getID();
+				int size = neighbors.size();
+				int required = this.numEdges + size;
+				if (required < 0) {
+					throw new IllegalStateException("The neighborhood graph has too many edges.");
+				}
+				if (required > this.neighborIDs.length) {
+					int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(required, this.neighborIDs.length + (long) (this.neighborIDs.length >> 1)));
+					this.neighborIDs = Arrays.copyOf(this.neighborIDs, capacity);
+					this.distances = Arrays.copyOf(this.distances, capacity);
+				}
+				System.arraycopy(neighbors.IDs, 0, this.neighborIDs, this.numEdges, size);
+				System.arraycopy(neighbors.distances, 0, this.distances, this.numEdges, size);
+				this.rowStart[ID] = this.numEdges;
+				this.rowLength[ID] = size;
+				this.numEdges = required;
+				this.preTold[ID] = null;
+			}
+			
+			
+			/**
+			 * Tells the number of currently known neighbors of a row.
+			 * 
+			 * @param ID ID of the row
+			 * @return number of neighbors.
+			 */
+			public int size(int ID) {
+				if (this.rowStart[ID] >= 0) {
+					return this.rowLength[ID];
+				}
+				return this.preTold[ID] instanceof NeighborList ? this.preTold[ID].size() : 0;
+			}
+			
+			
+			/**
+			 * Tells the ID of a currently known neighbor of a row.
+			 * 
+			 * @param ID ID of the row
+			 * @param i position in the row
+			 * @return ID of the neighbor.
+			 */
+			public int getNeighborID(int ID, int i) {
+				if (this.rowStart[ID] >= 0) {
+					return this.neighborIDs[this.rowStart[ID] + i];
+				}
+				return this.preTold[ID].getID(i);
+			}
+			
+			
+			/**
+			 * Tells the distance to a currently known neighbor of a row.
+			 * 
+			 * @param ID ID of the row
+			 * @param i position in the row
+			 * @return distance to the neighbor.
+			 */
+			public float getDistance(int ID, int i) {
+				if (this.rowStart[ID] >= 0) {
+					return this.distances[this.rowStart[ID] + i];
+				}
+				return this.preTold[ID].getDistance(i);
 			}
 			
 			
@@ -1778,7 +2700,7 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 */
 			@Override
 			public String toString() {
-				return "[nt:" + this.instancePlaceholder + "<->" + this.distance + "]";
+				return "[ng:" + this.rowStart.length + "," + this.numEdges + "]";
 			}
 			
 		}
@@ -1793,30 +2715,6 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 		 */
 		protected class Ant {
 			
-			/**
-			 * Compares two neighborhood relations by their distance.
-			 */
-			protected class InstancePlaceholderNeighborTagDistanceComparator implements Comparator<InstancePlaceholderNeighborTag> {
-				
-				/**
-				 * Performs the comparison task of two neighborhood relations.
-				 * 
-				 * @param one first neighborhood relation of the comparison
-				 * @param two second neighborhood relation of the comparison
-				 * @return 1, if the distance of {@code one} is greater than the
-				 *         distance of {@code two}, -1 if the distance of {@code two} is greater
-				 *         than the distance of {@code one} and 0 if both distances
-				 *         are the same.
-				 */
-				@Override
-				public int compare(InstancePlaceholderNeighborTag one, InstancePlaceholderNeighborTag two) {
-					if (one.distance > two.distance) { return 1; }
-					else if (one.distance < two.distance) { return -1; }
-					else { return 0; }
-				}
-				
-			}
-			
 			/** Link to the {@linkplain AntHill} that manages this Ant. */
 			protected AntHill antHill = null;
 			
@@ -1859,6 +2757,18 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 */
 			private InstancePlaceholder remember = null;
 			
+			/** Buffer for the range queries of this ant on the {@linkplain NeighborhoodIndex}, also holding the candidates found by {@link #propose()}. */
+			protected NeighborhoodIndex.Result neighborhoodQuery = null;
+			
+			/** ID of the {@linkplain InstancePlaceholder} whose neighbor candidates {@link #propose()} found, -1 if there are none. */
+			protected int proposedPosition = -1;
+			
+			/** IDs of the neighbors found while calculating a neighborhood, cleared again afterwards. */
+			protected BitSet neighborMarks = null;
+			
+			/** Own random number stream of this ant, derived from the seed and the index of the ant, or null when the ant uses the random number generator shared by all ants. */
+			protected SplittableRandom random = null;
+			
 			
 			/**
 			 * The default constructor of this class.
@@ -1923,6 +2833,45 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			}
 			
 			
+			/**
+			 * Prepares the next call of this ant without changing any state, so
+			 * several ants can prepare their calls at the same time. When the
+			 * neighbors of the current position are unknown, the ant searches
+			 * the neighbor candidates in advance, which are the distances the
+			 * next call would calculate. The call then only checks, which
+			 * candidates were explored meanwhile, see
+			 * {@link #calculateNeighborsAtPosition()}, and does the same as
+			 * without the preparation.
+			 * 
+			 * @see AntHill#runAntCallRounds(ExecutorService, ArrayList, int[], int)
+			 */
+			public void propose() {
+				this.proposedPosition = -1;
+				if (!this.isActive || !(this.position instanceof InstancePlaceholder) || this.position.neighborsAreKnown()) {
+					return;
+				}
+				int ID = this.position.getID();
+				if (!(this.neighborhoodQuery instanceof NeighborhoodIndex.Result)) {
+					this.neighborhoodQuery = new NeighborhoodIndex.Result();
+				}
+				if (neighborhoodIndex instanceof NeighborhoodIndex && !optn_distanceFunctionAlign) {
+					neighborhoodIndex.rangeQuery(ID, this.viewRange, this.neighborhoodQuery);
+					this.neighborhoodQuery.sortByID();
+				}
+				else {
+					this.neighborhoodQuery.clear();
+					BitSet candidates = this.antHill.getInstancePlaceholders().getUnexploredNeighborhoodList();
+					for (int candidate = candidates.nextSetBit(0); candidate >= 0; candidate = candidates.nextSetBit(candidate + 1)) {
+						double distance = distance(ID, candidate);
+						if (distance <= this.viewRange && candidate != ID) {
+							this.neighborhoodQuery.add(candidate, distance);
+						}
+					}
+				}
+				this.proposedPosition = ID;
+			}
+			
+			
 			/**
 			 * Clusters {@linkplain InstancePlaceholder} objects. If the
 			 * neighbors are not known or the local similarity is not calculated
@@ -1952,8 +2901,9 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 					return; //Exploration has higher priority than calculating the cluster.
 				} //No explore priority.
 				if (this.foiNoiseThreshold >= 0 && this.position.getFoi() <= this.foiNoiseThreshold) {
-					this.position.setCluster(this.antHill.clusters.getNoiseCluster());
-					this.antHill.clusters.getNoiseCluster().add(this.position);
+					if (this.position.claimCluster(this.antHill.clusters.getNoiseCluster())) { //Otherwise it is clustered already.
+						this.antHill.clusters.getNoiseCluster().add(this.position);
+					}
 					return;
 				}
 				if (!this.holdsInstancePlaceholder()) {
@@ -1969,13 +2919,19 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 					this.take(this.position);
 					Cluster cluster = this.antHill.getClusters().makeNewCluster();
 					cluster.setStart(this.getRememberedInstancePlaceholder());
-					cluster.add(this.getRememberedInstancePlaceholder());
 					this.getRememberedInstancePlaceholder().setCluster(cluster);
+					cluster.add(this.getRememberedInstancePlaceholder());
+					this.release();
+					return;
+				}
+				Cluster positionCluster = this.position.getCluster();
+				if (this.getRememberedInstancePlaceholder().claimCluster(positionCluster)) {
+					positionCluster.add(this.getRememberedInstancePlaceholder());
+				}
+				else { //Another ant clustered the remembered InstancePlaceholder since it was taken, it stays in that cluster.
 					this.release();
 					return;
 				}
-				this.getRememberedInstancePlaceholder().setCluster(this.position.getCluster());
-				this.position.getCluster().add(this.getRememberedInstancePlaceholder());
 				if (this.foiRaiseTolerance > 0) {
 					for (InstancePlaceholder neighbor : this.getRememberedInstancePlaceholder()) {
 						if (!neighbor.hasCluster()) {
@@ -2026,7 +2982,7 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 */
 			protected void walk() { //Avoid take or release.
 				if (!(this.position instanceof InstancePlaceholder)) {
-					this.position = this.antHill.getInstancePlaceholders().getRandomInstancePlaceholder();
+					this.position = this.getRandomPosition();
 					return;
 				}
 				if (this.destination instanceof InstancePlaceholder) {
@@ -2060,7 +3016,7 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 				}
 				else {
 					if (this.position.hasCluster() && this.idleCalls < this.autoShutdownAfterNumIdleCalls) {
-						this.position = this.antHill.getInstancePlaceholders().getRandomInstancePlaceholder();
+						this.position = this.getRandomPosition();
 						this.idleCalls++;
 					}
 					if (this.idleCalls >= this.autoShutdownAfterNumIdleCalls) {
@@ -2083,11 +3039,38 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			}
 			
 			
+			/**
+			 * Chooses a random {@linkplain InstancePlaceholder} to walk to, with
+			 * the own random number stream of this ant if it has one.
+			 * 
+			 * @return a randomly selected InstancePlaceholder.
+			 */
+			protected InstancePlaceholder getRandomPosition() {
+				if (this.random instanceof SplittableRandom) {
+					return this.antHill.getInstancePlaceholders().getRandomInstancePlaceholder(this.random);
+				}
+				return this.antHill.getInstancePlaceholders().getRandomInstancePlaceholder();
+			}
+			
+			
+			/**
+			 * Gives this ant its own random number stream, so it does not share
+			 * the random number generator with ants running in other threads.
+			 * 
+			 * @param random the random number stream of this ant, or null to use
+			 *        the shared random number generator.
+			 */
+			public void setRandom(SplittableRandom random) {
+				this.random = random;
+			}
+			
+			
 			/**
 			 * Direct the ant to merge two {@linkplain Cluster}s into one.
 			 * <p>
-			 * In this implementation the ant receives information from the
-			 * cluster about its members. When the ant explores the environment
+			 * In this implementation the ant does not visit the members, but
+			 * the sets of both clusters are united in {@linkplain Clusters}, so
+			 * merging takes nearly constant time. When the ant explores the environment
 			 * itself, it runs slower, but with less information. In another
 			 * implementation the ant could check all neighbors from a starting
 			 * {@linkplain InstancePlaceholder} for example, and add them to a internal todo
@@ -2110,14 +3093,7 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 					}
 					return;
 				}
-				InstancePlaceholder root = this.position;
-				for (InstancePlaceholder pos : from) {
-					this.position = pos; //Also possible without this.position change, but this simulates walking of the ant.
-					to.add(pos);
-					pos.setCluster(to);
-					from.remove(pos);
-				}
-				this.position = root; //Go back to starting position.
+				this.antHill.getClusters().merge(from, to); //The members of from now resolve to to.
 			}
 			
 			
@@ -2208,34 +3184,88 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			
 			/**
 			 * Does calculate all neighbors for the current position of this
-			 * ant.
+			 * ant. If {@link #propose()} already found the neighbor candidates
+			 * of the position, only those are regarded, that were not explored
+			 * since. These are the candidates a scan would find now.
 			 */
 			private void calculateNeighborsAtPosition() { //See also Handl/Meyer 2002, p. 916.
-				Instance instance = this.position.getInstance();
-				ArrayList<InstancePlaceholder> candidates = this.antHill.getInstancePlaceholders().getUnexploredNeighborhoodList();
-				ArrayList<InstancePlaceholderNeighborTag> neighbors = new ArrayList<InstancePlaceholderNeighborTag>();
-				ArrayList<InstancePlaceholderNeighborTag> preToldNeighbors = this.position.getNeighbors();
+				int ID = this.position.getID();
+				boolean proposed = this.proposedPosition == ID;
+				this.proposedPosition = -1;
+				BitSet candidates = this.antHill.getInstancePlaceholders().getUnexploredNeighborhoodList();
+				NeighborList found = new NeighborList();
+				int limit = optn_maxNumNeighborEvaluation;
+				if (!(this.neighborMarks instanceof BitSet)) {
+					this.neighborMarks = new BitSet(this.antHill.getInstancePlaceholders().size());
+				}
 				double dJV = 0;
-				if (optn_distanceFunctionAlign) {
-					for (InstancePlaceholder candidate : candidates) {
-						double distance = optn_distanceFunction.distance(instance, candidate.getInstance());
-						dJV = distance;
+				if (optn_distanceFunctionAlign) { //The distance to the last candidate.
+					int last = -1;
+					for (int candidate = candidates.nextSetBit(0); candidate >= 0; candidate = candidates.nextSetBit(candidate + 1)) {
+						last = candidate;
+					}
+					if (last >= 0) {
+						dJV = distance(ID, last);
 					}
 				}
-				for (InstancePlaceholder candidate : candidates) {
-					double distance = optn_distanceFunction.distance(instance, candidate.getInstance());
-					if (distance <= this.viewRange && !this.position.equals(candidate)) {
+				if (neighborhoodIndex instanceof NeighborhoodIndex && !optn_distanceFunctionAlign) { //Same neighbors in the same order as the linear scan below.
+					if (!proposed) {
+						if (!(this.neighborhoodQuery instanceof NeighborhoodIndex.Result)) {
+							this.neighborhoodQuery = new NeighborhoodIndex.Result();
+						}
+						neighborhoodIndex.rangeQuery(ID, this.viewRange, this.neighborhoodQuery);
+						this.neighborhoodQuery.sortByID();
+					}
+					int size = this.neighborhoodQuery.size();
+					for (int i = 0; i < size; i++) {
+						InstancePlaceholder candidate = this.antHill.getInstancePlaceholders().get(this.neighborhoodQuery.getID(i));
+						if (candidate.neighborsAreKnown() || this.position.equals(candidate)) { //Only unexplored candidates, like in the list.
+							continue;
+						}
+						double distance = this.neighborhoodQuery.getDistance(i);
+						found.add(candidate.getID(), distance);
+						candidate.preTellNeighbor(this.position, distance);
+					}
+				}
+				else if (proposed) { //The candidates explored meanwhile told their distances in advance.
+					int size = this.neighborhoodQuery.size();
+					for (int i = 0; i < size; i++) {
+						InstancePlaceholder candidate = this.antHill.getInstancePlaceholders().get(this.neighborhoodQuery.getID(i));
+						if (candidate.neighborsAreKnown()) {
+							continue;
+						}
+						double distance = this.neighborhoodQuery.getDistance(i);
 						if (optn_distanceFunctionAlign) { distance = distance / dJV; }
-						neighbors.add(new InstancePlaceholderNeighborTag(candidate, distance));
-						candidate.preTellNeighbor(new InstancePlaceholderNeighborTag(this.position, distance));
+						found.add(candidate.getID(), distance);
+						candidate.preTellNeighbor(this.position, distance);
 					}
 				}
-				for (InstancePlaceholderNeighborTag neighbor : preToldNeighbors) { //Now add the pre told neighbors, too.
-					if (!neighbors.contains(neighbor)) {
-						neighbors.add(neighbor);
+				else {
+					for (int candidate = candidates.nextSetBit(0); candidate >= 0; candidate = candidates.nextSetBit(candidate + 1)) {
+						double distance = distance(ID, candidate);
+						if (distance <= this.viewRange && candidate != ID) {
+							if (optn_distanceFunctionAlign) { distance = distance / dJV; }
+							found.add(candidate, distance);
+							this.antHill.getInstancePlaceholders().get(candidate).preTellNeighbor(this.position, distance);
+						}
 					}
 				}
-				neighbors.sort(new InstancePlaceholderNeighborTagDistanceComparator());
+				NeighborList preToldNeighbors = this.position.getPreToldNeighbors();
+				int numPreTold = preToldNeighbors instanceof NeighborList ? preToldNeighbors.size() : 0;
+				for (int i = 0; i < numPreTold; i++) { //Pre told neighbors are added at the end, do not add them twice.
+					this.neighborMarks.set(preToldNeighbors.getID(i));
+				}
+				NeighborList neighbors = new NeighborList();
+				for (int i = 0; i < found.size(); i++) {
+					if (!this.neighborMarks.get(found.getID(i))) {
+						neighbors.offer(found.getID(i), found.getDistance(i), limit);
+					}
+				}
+				for (int i = 0; i < numPreTold; i++) { //Now add the pre told neighbors, too.
+					neighbors.offer(preToldNeighbors.getID(i), preToldNeighbors.getDistance(i), limit);
+					this.neighborMarks.clear(preToldNeighbors.getID(i)); //Only the set bits, not the whole set.
+				}
+				neighbors.sortByDistance();
 				this.position.setNeighbors(neighbors);
 				this.antHill.getInstancePlaceholders().notifyNeighborKnown(this.position);
 			}
@@ -2246,23 +3276,7 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 * position of this ant.
 			 */
 			private void calculateFoiAtPosition() {
-				double alpha = this.antHill.getAlpha();
-				ArrayList<InstancePlaceholderNeighborTag> neighbors = this.position.getNeighbors();
-				double sum = 0.0;
-				double foi = 0.0;
-				int size = neighbors.size();
-				if (size == 0) { //When there are no neighbors there is no further need to calculate foi.
-					this.position.setFoi(0.0);
-					return;
-				}
-				for (InstancePlaceholderNeighborTag neighborTag : neighbors) {
-					sum = sum + (1.0 - (neighborTag.distance / alpha));
-				}
-				foi = (sum / size) * 10; //foi = (sum / size) * 1; 10 is just scaling factor. Can also be 100, ...
-				if (foi < 0) {
-					foi = 0;
-				}
-				this.position.setFoi(foi);
+				this.antHill.calculateFoi(this.position);
 			}
 			
 			
@@ -2314,6 +3328,74 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 		/** How many {@linkplain Ant}s should be called per antCycle. */
 		private int antsCallPerCycle = 0;
 		
+		/** Number of threads calling the {@linkplain Ant}s. */
+		protected int executionSlots = 1;
+		
+		/** Threads calling the {@linkplain Ant}s, if there are several execution slots. */
+		protected ForkJoinPool antPool = null;
+		
+		/** Indicates whether each active {@linkplain Ant} runs in its own thread. */
+		protected boolean antThreads = false;
+		
+		/** Threads running the {@linkplain Ant}s, if each ant runs in its own thread. */
+		protected ExecutorService antExecutor = null;
+		
+		
+		/**
+		 * Task of the neighborhood precomputation. It calculates the neighbors
+		 * and the local similarity values of a range of
+		 * {@linkplain InstancePlaceholder} objects and splits itself while the
+		 * range is larger than {@link DBACluster#precomputeTaskSize}.
+		 */
+		protected class NeighborhoodPrecomputation extends RecursiveAction {
+			
+			/** For serialization */
+			private static final long serialVersionUID = -4136257186270139462L;
+			
+			/** ID of the first InstancePlaceholder of the range. */
+			protected int from;
+			
+			/** ID after the last InstancePlaceholder of the range. */
+			protected int to;
+			
+			/** View range of the ants, the size of the neighborhoods. */
+			protected double viewRange;
+			
+			
+			/**
+			 * The default constructor of this class.
+			 * 
+			 * @param from ID of the first InstancePlaceholder of the range
+			 * @param to ID after the last InstancePlaceholder of the range
+			 * @param viewRange view range of the ants
+			 */
+			public NeighborhoodPrecomputation(int from, int to, double viewRange) {
+				this.from = from;
+				this.to = to;
+				this.viewRange = viewRange;
+			}
+			
+			
+			/**
+			 * Calculates the neighborhoods of the range, or splits the range
+			 * into two tasks.
+			 */
+			@Override
+			protected void compute() {
+				if (this.to - this.from > precomputeTaskSize) {
+					int middle = (this.from + this.to) >>> 1;
+					invokeAll(new NeighborhoodPrecomputation(this.from, middle, this.viewRange), new NeighborhoodPrecomputation(middle, this.to, this.viewRange));
+					return;
+				}
+				NeighborhoodIndex.Result query = new NeighborhoodIndex.Result();
+				for (int i = this.from; i < this.to; i++) {
+					precomputeNeighborhood(instancePlaceholders.get(i), this.viewRange, query);
+				}
+			}
+			
+		}
+		
+		
 		/** How many {@linkplain InstancePlaceholder}s remained unclustered after the clustering process is done and the AntHill was shut down. */
 //		private int numUnclusteredInLastAssignment = -1;
 		
@@ -2354,8 +3436,11 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			this.alpha = alpha;
 			this.instancePlaceholders = new InstancePlaceholders(data);
 			this.ants = new ArrayList<Ant>(numAnts);
+			SplittableRandom antRandoms = new SplittableRandom(getSeed());
 			for (int i = 0; i < numAnts; i++) {
-				this.ants.add(new Ant(this, antViewRange, foiRaiseTolerance, foiNoiseThreshold, antsAssumeGlobalAfterNumCalls > 0 ? antsAssumeGlobalAfterNumCalls : -1));
+				Ant ant = new Ant(this, antViewRange, foiRaiseTolerance, foiNoiseThreshold, antsAssumeGlobalAfterNumCalls > 0 ? antsAssumeGlobalAfterNumCalls : -1);
+				ant.setRandom(antRandoms.split()); //Split in the order of the ants, so each ant gets the same stream for the same seed.
+				this.ants.add(ant);
 			}
 			this.antCycles = 0;
 			this.isActive = true;
@@ -2429,6 +3514,125 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 		}
 		
 		
+		/**
+		 * Calculates the local similarity value of an
+		 * {@linkplain InstancePlaceholder}, which must know its neighbors.
+		 * 
+		 * @param ip the InstancePlaceholder to calculate the local similarity
+		 *        value for.
+		 */
+		public void calculateFoi(InstancePlaceholder ip) {
+			NeighborhoodGraph graph = this.instancePlaceholders.getNeighborhoodGraph();
+			int ID = ip.getID();
+			ip.setFoi(this.calculateFoi(graph.distances, graph.rowStart[ID], graph.rowLength[ID]));
+		}
+		
+		
+		/**
+		 * Calculates a local similarity value from the distances to the
+		 * neighbors.
+		 * 
+		 * @param distances array holding the distances
+		 * @param from index of the first distance
+		 * @param size number of distances, namely the neighbor count
+		 * @return the local similarity value.
+		 */
+		protected double calculateFoi(float[] distances, int from, int size) {
+			double sum = 0.0;
+			double foi = 0.0;
+			if (size == 0) { //When there are no neighbors there is no further need to calculate foi.
+				return 0.0;
+			}
+			for (int i = from; i < from + size; i++) {
+				sum = sum + (1.0 - (distances[i] / this.alpha));
+			}
+			foi = (sum / size) * 10; //foi = (sum / size) * 1; 10 is just scaling factor. Can also be 100, ...
+			if (foi < 0) {
+				foi = 0;
+			}
+			return foi;
+		}
+		
+		
+		/**
+		 * Calculates the neighbors and the local similarity values of all
+		 * {@linkplain InstancePlaceholder} objects, before the ants start.
+		 * <p>
+		 * Each InstancePlaceholder is compared with all others, so unlike
+		 * the exploration by the ants the neighborhood relations are not told
+		 * to the neighbors in advance and each InstancePlaceholder can be
+		 * handled independently. With several execution slots the
+		 * InstancePlaceholder objects are shared among the threads of a
+		 * {@linkplain ForkJoinPool}.
+		 * 
+		 * @param slots number of threads to use.
+		 * @throws RuntimeException if calculating a neighborhood failed.
+		 */
+		public void precomputeNeighborhoods(int slots) throws RuntimeException {
+			double viewRange = this.ants.get(0).viewRange; //All ants have the same view range.
+			int size = this.instancePlaceholders.size();
+			if (slots > 1 && size > precomputeTaskSize) {
+				distance(0, 0); //Let the distance function initialize itself before several threads use it.
+				ForkJoinPool pool = new ForkJoinPool(slots);
+				try {
+					pool.invoke(new NeighborhoodPrecomputation(0, size, viewRange));
+				}
+				finally {
+					pool.shutdown();
+				}
+			}
+			else {
+				NeighborhoodIndex.Result query = new NeighborhoodIndex.Result();
+				for (InstancePlaceholder ip : this.instancePlaceholders) {
+					this.precomputeNeighborhood(ip, viewRange, query);
+				}
+			}
+			this.instancePlaceholders.notifyAllNeighborsKnown();
+		}
+		
+		
+		/**
+		 * Calculates the neighbors and the local similarity value of one
+		 * {@linkplain InstancePlaceholder} by comparing it with all other
+		 * InstancePlaceholder objects.
+		 * 
+		 * @param ip the InstancePlaceholder to calculate the neighborhood for
+		 * @param viewRange view range of the ants
+		 * @param query buffer for range queries on the
+		 *        {@linkplain NeighborhoodIndex}
+		 */
+		protected void precomputeNeighborhood(InstancePlaceholder ip, double viewRange, NeighborhoodIndex.Result query) {
+			int ID = ip.getID();
+			int size = this.instancePlaceholders.size();
+			NeighborList neighbors = new NeighborList();
+			if (neighborhoodIndex instanceof NeighborhoodIndex && !optn_distanceFunctionAlign) {
+				neighborhoodIndex.rangeQuery(ID, viewRange, query);
+				query.sortByID();
+				for (int i = 0; i < query.size(); i++) {
+					if (query.getID(i) != ID) {
+						neighbors.offer(query.getID(i), query.getDistance(i), optn_maxNumNeighborEvaluation);
+					}
+				}
+			}
+			else {
+				double dJV = optn_distanceFunctionAlign ? distance(ID, size - 1) : 0; //Like an ant exploring before any other instance was explored.
+				for (int i = 0; i < size; i++) {
+					if (i == ID) {
+						continue;
+					}
+					double distance = distance(ID, i);
+					if (distance <= viewRange) {
+						if (optn_distanceFunctionAlign) { distance = distance / dJV; }
+						neighbors.offer(i, distance, optn_maxNumNeighborEvaluation);
+					}
+				}
+			}
+			neighbors.sortByDistance();
+			ip.setFoi(this.calculateFoi(neighbors.distances, 0, neighbors.size())); //From the list, the graph may be growing in another thread.
+			ip.setNeighbors(neighbors);
+		}
+		
+		
 		/**
 		 * Runs one ant cycle.
 		 */
@@ -2447,13 +3651,169 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 				this.shutdown();
 				return;
 			} //Else:
-			for (int i = 0; i < this.antsCallPerCycle; i++) {
-				activeAnts.get(rand.nextInt(size)).call();
+			int workers = Math.min(this.executionSlots, size);
+			if (this.antThreads) {
+				this.runAntCycleWithAntThreads(activeAnts);
+			}
+			else if (workers > 1) {
+				this.runAntCycle(activeAnts, workers);
+			}
+			else {
+				for (int i = 0; i < this.antsCallPerCycle; i++) {
+					activeAnts.get(rand.nextInt(size)).call();
+				}
 			}
 			this.antCycles++;
 		}
 		
 		
+		/**
+		 * Calls the active {@linkplain Ant}s of one ant cycle in several
+		 * threads. The ant for each call is drawn from the random number
+		 * generator like in a sequential ant cycle, then the calls are made
+		 * in rounds, see
+		 * {@link #runAntCallRounds(ExecutorService, ArrayList, int[], int)}.
+		 * 
+		 * @param activeAnts the active ants
+		 * @param workers number of threads, at least 2
+		 * @throws RuntimeException if an ant failed.
+		 */
+		protected void runAntCycle(ArrayList<Ant> activeAnts, int workers) throws RuntimeException {
+			if (!(this.antPool instanceof ForkJoinPool)) {
+				distance(0, 0); //Let the distance function initialize itself before several threads use it.
+				this.antPool = new ForkJoinPool(this.executionSlots);
+			}
+			int size = activeAnts.size();
+			int[] antCalls = new int[size];
+			for (int i = 0; i < this.antsCallPerCycle; i++) {
+				antCalls[rand.nextInt(size)]++;
+			}
+			this.runAntCallRounds(this.antPool, activeAnts, antCalls, workers);
+		}
+		
+		
+		/**
+		 * Runs each active {@linkplain Ant} of one ant cycle in its own task.
+		 * Each ant makes a fixed share of the calls per cycle, the first ants
+		 * make one call more when the calls can not be shared evenly. The
+		 * calls are made in rounds, see
+		 * {@link #runAntCallRounds(ExecutorService, ArrayList, int[], int)},
+		 * each ant preparing its call in its own task.
+		 * 
+		 * @param activeAnts the active ants
+		 * @throws RuntimeException if an ant failed.
+		 */
+		protected void runAntCycleWithAntThreads(ArrayList<Ant> activeAnts) throws RuntimeException {
+			if (!(this.antExecutor instanceof ExecutorService)) {
+				distance(0, 0); //Let the distance function initialize itself before several threads use it.
+				this.antExecutor = AntExecutors.newAntThreadExecutor(this.executionSlots);
+			}
+			int size = activeAnts.size();
+			int[] antCalls = new int[size];
+			for (int k = 0; k < size; k++) {
+				antCalls[k] = this.antsCallPerCycle / size + (k < this.antsCallPerCycle % size ? 1 : 0);
+			}
+			this.runAntCallRounds(this.antExecutor, activeAnts, antCalls, size);
+		}
+		
+		
+		/**
+		 * Makes the ant calls of one ant cycle in rounds. In each round every
+		 * ant with calls left makes one call. First all these ants prepare
+		 * their calls in parallel without changing any state, see
+		 * {@link Ant#propose()}. Then they are called one after another in
+		 * the order of their indexes, which does the same as calling them
+		 * sequentially in this order, only faster.
+		 * <p>
+		 * The state an ant prepares its call on and the order of the calls do
+		 * not depend on the threads, and each ant draws from its own random
+		 * number stream. So the assignments are bit-identical for a given
+		 * seed, no matter how many threads there are and how they are
+		 * scheduled.
+		 * 
+		 * @param executor the thread pool to let the ants prepare their calls in
+		 * @param activeAnts the active ants
+		 * @param antCalls number of calls of each active ant in this ant cycle
+		 * @param maxTasks how many tasks the preparing ants of a round are
+		 *        shared among at most
+		 * @throws RuntimeException if an ant failed.
+		 */
+		protected void runAntCallRounds(ExecutorService executor, final ArrayList<Ant> activeAnts, int[] antCalls, int maxTasks) throws RuntimeException {
+			int numRounds = 0;
+			for (int i = 0; i < antCalls.length; i++) {
+				numRounds = Math.max(numRounds, antCalls[i]);
+			}
+			final int[] roundAnts = new int[antCalls.length];
+			ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>(Math.min(maxTasks, antCalls.length));
+			for (int round = 0; round < numRounds; round++) {
+				int numRoundAnts = 0;
+				for (int k = 0; k < antCalls.length; k++) {
+					if (antCalls[k] > round) {
+						roundAnts[numRoundAnts] = k;
+						numRoundAnts++;
+					}
+				}
+				final int numAnts = numRoundAnts;
+				final int numTasks = Math.min(maxTasks, numAnts);
+				tasks.clear();
+				for (int t = 0; t < numTasks; t++) {
+					final int task = t;
+					tasks.add(new Callable<Object>() {
+						@Override
+						public Object call() {
+							for (int i = task; i < numAnts; i += numTasks) {
+								activeAnts.get(roundAnts[i]).propose();
+							}
+							return null;
+						}
+					});
+				}
+				try {
+					for (Future<Object> future : executor.invokeAll(tasks)) {
+						future.get();
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("The ant cycle was interrupted.", e);
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				}
+				for (int i = 0; i < numAnts; i++) {
+					activeAnts.get(roundAnts[i]).call();
+				}
+			}
+		}
+		
+		
+		/**
+		 * Lets each active {@linkplain Ant} run in its own thread in each ant
+		 * cycle.
+		 * 
+		 * @param antThreads true to run each ant in its own thread, false to
+		 *        call randomly chosen ants in the execution slots.
+		 */
+		public void setAntThreads(boolean antThreads) {
+			this.antThreads = antThreads;
+		}
+		
+		
+		/**
+		 * Sets the number of threads calling the {@linkplain Ant}s in each
+		 * ant cycle.
+		 * 
+		 * @param executionSlots number of threads, 1 calls the ants in the
+		 *        calling thread.
+		 */
+		public void setExecutionSlots(int executionSlots) {
+			this.executionSlots = Math.max(1, executionSlots);
+		}
+		
+		
 		/**
 		 * Shuts this AntHill down after a clustering task.
 		 */
@@ -2464,10 +3824,28 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			for (Ant ant : this.ants) {
 				ant.shutdown();
 			}
+			this.shutdownExecutors();
 			this.isActive = false;
 		}
 		
 		
+		/**
+		 * Stops the threads calling the {@linkplain Ant}s. This must also be
+		 * done when an ant cycle failed, otherwise the threads of the pools
+		 * stay alive.
+		 */
+		public void shutdownExecutors() {
+			if (this.antPool instanceof ForkJoinPool) {
+				this.antPool.shutdownNow();
+				this.antPool = null;
+			}
+			if (this.antExecutor instanceof ExecutorService) {
+				this.antExecutor.shutdownNow();
+				this.antExecutor = null;
+			}
+		}
+		
+		
 		/**
 		 * Tells the result of an executed clustering task.
 		 * 
@@ -2491,17 +3869,20 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 				/** Leading clusters that can be found in the reduced result. */
 				private ArrayList<Cluster> leadingClusters;
 				
-				/** IDs of the leading clusters. */
-				private int[] leadingClusterIDs;
+				/** Tells for each cluster ID, if it is the ID of a leading cluster. */
+				private boolean[] isLeadingClusterID;
 				
 				
 				/**
-				 * The default constructor of this class.
+				 * The default constructor of this class. The members of the
+				 * clusters must be collected, see
+				 * {@link Clusters#collectMembers(InstancePlaceholders)}.
 				 * 
 				 * @param clusters the starting set of {@linkplain Clusters}
 				 * @param maxClusterNum upper limit for clusters in the result.
+				 * @param maxClusterID greatest ID of the clusters.
 				 */
-				public ClusterNumReducer(Clusters clusters, int maxClusterNum) {
+				public ClusterNumReducer(Clusters clusters, int maxClusterNum, int maxClusterID) {
 					this.leadingClusters = new ArrayList<Cluster>();
 					if (clusters.size() <= maxClusterNum || maxClusterNum < 1) {
 						this.enabled = false;
@@ -2510,24 +3891,28 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 					else {
 						this.enabled = true;
 					}
-					while (leadingClusters.size() < maxClusterNum) { //Find leading clusters.
-						Cluster bestCluster = null;
-						int bestSize = 0;
-						for (Cluster cluster : clusters) {
-							if ((!(bestCluster instanceof Cluster) || cluster.size() > bestSize) && !leadingClusters.contains(cluster)) {
-								bestCluster = cluster;
-								bestSize = cluster.size();
-							}
+					int size = clusters.size();
+					long[] keys = new long[size];
+					int numNonEmpty = 0;
+					for (int i = 0; i < size; i++) { //Largest clusters first, of the same size the first made.
+						int numMembers = clusters.get(i).numCollected;
+						keys[i] = ((long) (Integer.MAX_VALUE - numMembers) << 32) | i;
+						if (numMembers > 0) {
+							numNonEmpty++;
 						}
-						leadingClusters.add(bestCluster); //No null check required, if there are more clusters in clusters than allowed, one must be found.
 					}
-					this.leadingClusters.trimToSize();
-					this.leadingClusterIDs = new int[this.leadingClusters.size()];
-					int LI = 0;
-					for (Cluster cluster : leadingClusters) {
-						this.leadingClusterIDs[LI] = cluster.getID();
-						LI++;
+					if (numNonEmpty <= maxClusterNum) {
+						this.enabled = false;
+						return;
+					}
+					Arrays.sort(keys);
+					this.isLeadingClusterID = new boolean[maxClusterID + 1];
+					for (int i = 0; i < maxClusterNum; i++) { //Find leading clusters.
+						Cluster cluster = clusters.get((int) keys[i]);
+						this.leadingClusters.add(cluster);
+						this.isLeadingClusterID[cluster.getID()] = true;
 					}
+					this.leadingClusters.trimToSize();
 				}
 				
 				
@@ -2549,27 +3934,22 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 					if (!this.enabled) {
 						return cID;
 					}
-					int size = this.leadingClusterIDs.length;
-					for (int i = 0; i < size; i++) {
-						if (this.leadingClusterIDs[i] == cID) {
-							return cID;
-						}
+					if (this.isLeadingClusterID[cID]) {
+						return cID;
 					} //The ip is not part of a leading cluster. But as the cluster number should be reduced it must be matched to one.
 					for (InstancePlaceholder neighbor : ip) {
 						if (!neighbor.hasCluster() || neighbor.hasNoiseCluster()) {
 							continue;
 						}
 						int ncID = neighbor.getCluster().getID();
-						for (int i = 0; i < size; i++) {
-							if (this.leadingClusterIDs[i] == ncID) { //A neighbor of ip is part of a leading cluster. Neighbors must be sorted.
-								return ncID;
-							}
+						if (this.isLeadingClusterID[ncID]) { //A neighbor of ip is part of a leading cluster. Neighbors must be sorted.
+							return ncID;
 						}
 					} //Still did not find a matching leading cluster.
 					Cluster bestCluster = null;
 					double bestDistance = 0.0;
 					for (Cluster cluster : this.leadingClusters) { //Try to find the closest leading cluster by start instance (ca. centroid) now.
-						double distance = optn_distanceFunction.distance(ip.getInstance(), ((InstancePlaceholder) cluster.getStart()).getInstance());
+						double distance = distance(ip.getID(), ((InstancePlaceholder) cluster.getStart()).getID());
 						if (!(bestCluster instanceof Cluster) || bestDistance > distance) {
 							bestCluster = cluster;
 							bestDistance = distance;
@@ -2595,46 +3975,21 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			 */
 			class ClusterIDCompactifier {
 				
-				/**
-				 * Association class for linking a starting cluster index to
-				 * a cluster index from the compact order, that produces no
-				 * gaps.
-				 */
-				class Association {
-					
-					/** Previous cluster index. */
-					public int clusterID;
-					
-					/** New cluster index in the order without gaps. */
-					public int compactifiedClusterID;
-					
-					/**
-					 * The default constructor for this class.
-					 * 
-					 * @param clusterID given cluster index
-					 * @param compactifiedClusterID new cluster index.
-					 */
-					public Association(int clusterID, int compactifiedClusterID) {
-						this.clusterID = clusterID;
-						this.compactifiedClusterID = compactifiedClusterID;
-					}
-					
-				}
-				
 				/** Next index from the compact order to be assigned to a cluster. */
 				private int nextCompactifiedClusterID = -1;
 				
-				/** Set of all known {@linkplain Association}s. */
-				private ArrayList<Association> knownAssociations = null;
+				/** Cluster index from the compact order for each previous cluster index, {@code unassignedClusterID} while none is assigned yet. */
+				private int[] compactifiedClusterIDs = null;
 				
 				/**
 				 * The default constructor for this class.
+				 * 
+				 * @param maxClusterID greatest previous cluster index.
 				 */
-				@SuppressWarnings("unused")
-				public ClusterIDCompactifier() {
+				public ClusterIDCompactifier(int maxClusterID) {
 					this.nextCompactifiedClusterID = unassignedClusterID == 0 ? 1 : 0;
-					this.knownAssociations = new ArrayList<Association>();
-					this.knownAssociations.add(new Association(unassignedClusterID, unassignedClusterID));
+					this.compactifiedClusterIDs = new int[maxClusterID + 1];
+					Arrays.fill(this.compactifiedClusterIDs, unassignedClusterID);
 				}
 				
 				
@@ -2650,35 +4005,14 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 					if (cID == unassignedClusterID) {
 						return unassignedClusterID;
 					}
-					Association association = this.getAssociationFor(cID);
-					if (association == null) {
-						association = new Association(cID, nextCompactifiedClusterID);
-						this.knownAssociations.add(association);
+					if (this.compactifiedClusterIDs[cID] == unassignedClusterID) {
+						this.compactifiedClusterIDs[cID] = nextCompactifiedClusterID;
 						do {
 							nextCompactifiedClusterID++;
 						}
 						while (nextCompactifiedClusterID == unassignedClusterID);
 					}
-					return association.compactifiedClusterID;
-				}
-				
-				
-				/**
-				 * Get a cluster index association for a given previous cluster
-				 * index.
-				 * 
-				 * @param cID the previous cluster index to retrieve the
-				 *        association for
-				 * @return the association where {@code cID} is the previous cluster
-				 *         index, or null if no matching association was found.
-				 */
-				protected Association getAssociationFor(int cID) {
-					for (Association association : this.knownAssociations) {
-						if (association.clusterID == cID) {
-							return association;
-						}
-					}
-					return null;
+					return this.compactifiedClusterIDs[cID];
 				}
 				
 			}
@@ -2686,8 +4020,13 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			if (this.isActive()) {
 				throw new RuntimeException("To get the cluster assignments from the AntHill it must be shut down first.");
 			}
-			ClusterNumReducer clusterNumReducer = new ClusterNumReducer(this.clusters, maxClusterNum);
-			ClusterIDCompactifier clusterIDCompactifier = new ClusterIDCompactifier();
+			this.clusters.collectMembers(this.instancePlaceholders);
+			int maxClusterID = 0;
+			for (Cluster cluster : this.clusters) {
+				maxClusterID = Math.max(maxClusterID, cluster.getID());
+			}
+			ClusterNumReducer clusterNumReducer = new ClusterNumReducer(this.clusters, maxClusterNum, maxClusterID);
+			ClusterIDCompactifier clusterIDCompactifier = new ClusterIDCompactifier(maxClusterID);
 			int size = this.instancePlaceholders.size();
 			int[] assignments = new int[size];
 //			this.numUnclusteredInLastAssignment = 0;
@@ -2820,6 +4159,100 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 	}
 	
 	
+	/**
+	 * Tells the distance between two instances in {@link DBACluster#data}
+	 * according to the distance function. When there is a
+	 * {@linkplain FeatureMatrix} for the distance function, the distance is
+	 * calculated with it.
+	 * 
+	 * @param first index of the first instance
+	 * @param second index of the second instance
+	 * @return the distance between both instances.
+	 */
+	protected double distance(int first, int second) {
+		if (this.featureMatrix instanceof FeatureMatrix) {
+			return this.featureMatrix.distance(first, second);
+		}
+		return optn_distanceFunction.distance(this.data.get(first), this.data.get(second));
+	}
+	
+	
+	/**
+	 * Tells if {@link #optn_distanceFunction} is known to be a metric on
+	 * {@link DBACluster#data}. That is only the case for the euclidean,
+	 * manhattan and chebyshev distance and for the minkowski distance of at
+	 * least order 1, but not for their subclasses, which may calculate
+	 * differently. The differences to missing values do not keep the triangle
+	 * inequality, so no attribute may be missing.
+	 * 
+	 * @return true if the distance function is a metric, false if it is not
+	 *         or not known to be one.
+	 */
+	protected boolean isMetricDistance() {
+		Class<?> distanceClass = optn_distanceFunction.getClass();
+		if (distanceClass == MinkowskiDistance.class) {
+			if (((MinkowskiDistance) optn_distanceFunction).getOrder() < 1) {
+				return false;
+			}
+		}
+		else if (distanceClass != EuclideanDistance.class && distanceClass != ManhattanDistance.class && distanceClass != ChebyshevDistance.class) {
+			return false;
+		}
+		int classIndex = this.data.classIndex();
+		for (Instance instance : this.data) {
+			for (int i = 0; i < instance.numAttributes(); i++) {
+				if (i != classIndex && instance.isMissing(i)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Builds the {@linkplain NeighborhoodIndex} chosen by
+	 * {@link #optn_neighborhoodIndex} for {@link DBACluster#data}.
+	 * <p>
+	 * The k-d tree requires a {@linkplain FeatureMatrix}, without one the
+	 * vantage point tree is used instead. The vantage point tree only finds
+	 * all neighbors for a metric, so it is only used if
+	 * {@link #isMetricDistance()} tells so, otherwise no index is used. When
+	 * the distances are aligned to the neighborhoods, the ants need the
+	 * distances to all instances, so no index is used then either.
+	 * 
+	 * @return the index, or null if all instances should be scanned.
+	 */
+	protected NeighborhoodIndex buildNeighborhoodIndex() {
+		if (optn_neighborhoodIndex == tag_neighborhoodIndexLinear || optn_distanceFunctionAlign) {
+			return null;
+		}
+		boolean kdTree;
+		if (optn_neighborhoodIndex == tag_neighborhoodIndexAuto) {
+			kdTree = this.featureMatrix instanceof FeatureMatrix && this.featureMatrix.numColumns() <= neighborhoodIndexKDTreeMaxColumns;
+		}
+		else {
+			kdTree = optn_neighborhoodIndex == tag_neighborhoodIndexKDTree && this.featureMatrix instanceof FeatureMatrix;
+		}
+		if (kdTree) {
+			return new KDTreeNeighborhoodIndex(this.featureMatrix);
+		}
+		if (!this.isMetricDistance()) {
+			if (m_Debug) { System.out.println("# The distance function is not known to be a metric, all instances are scanned for neighbors."); }
+			return null;
+		}
+		if (optn_neighborhoodIndex == tag_neighborhoodIndexKDTree) {
+			if (m_Debug) { System.out.println("# No k-d tree can be built for the distance function and the data, a vantage point tree is used."); }
+		}
+		return new VPTreeNeighborhoodIndex(this.data.size(), new NeighborhoodIndex.Metric() {
+			@Override
+			public double distance(int first, int second) {
+				return DBACluster.this.distance(first, second);
+			}
+		}, getSeed());
+	}
+	
+	
 	/**
 	 * Builds the clusterer with the given {@link weka.core.Instances}.
 	 * 
@@ -2847,14 +4280,31 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 			this.replaceMissingValuesFilter.setInputFormat(this.data);
 			this.data = Filter.useFilter(this.data, this.replaceMissingValuesFilter);
 		}
+		this.featureMatrix = FeatureMatrix.forDistanceFunction(this.data, optn_distanceFunction);
+		if (m_Debug && this.featureMatrix instanceof FeatureMatrix) { System.out.println("#   Calculating distances on a feature matrix."); }
+		this.neighborhoodIndex = this.buildNeighborhoodIndex();
+		if (m_Debug && this.neighborhoodIndex instanceof NeighborhoodIndex) { System.out.println("#   Finding neighbors with the index " + this.neighborhoodIndex + "."); }
 		
 		if (m_Debug) { System.out.println("#   Preparing the ants."); }
 		this.antHill.initialize(optn_alpha, this.data, optn_antsNum, optn_antsCallPerAntCycle, optn_s, optn_antsAssumeGlobalAfterNumCalls, optn_foiRaiseTolerance, optn_foiNoiseThreshold);
+		this.antHill.setExecutionSlots(optn_numExecutionSlots);
+		this.antHill.setAntThreads(optn_executionEngine == tag_executionEngineAntThreads);
+		
+		if (optn_precomputeNeighborhoods) {
+			if (m_Debug) { System.out.println("#   Precomputing the neighborhoods" + (optn_numExecutionSlots > 1 ? " in " + optn_numExecutionSlots + " execution slots" : "") + "."); }
+			this.antHill.precomputeNeighborhoods(optn_numExecutionSlots);
+		}
 		
 		if (m_Debug) { System.out.println("# Start ant clustering."); }
 		if (m_Debug) { System.out.println("#   Foi raise tolerance is " + optn_foiRaiseTolerance + "."); }
-		while (this.antHill.getAntCycles() < optn_antsMaxAntCycles && this.antHill.isActive()) {
-			this.antHill.runAntCycle();
+		if (m_Debug && optn_executionEngine == tag_executionEngineAntThreads) { System.out.println("#   Running each active ant in its own " + (AntExecutors.supportsVirtualThreads() ? "virtual thread." : "task in " + optn_numExecutionSlots + " execution slots.")); }
+		try {
+			while (this.antHill.getAntCycles() < optn_antsMaxAntCycles && this.antHill.isActive()) {
+				this.antHill.runAntCycle();
+			}
+		}
+		finally {
+			this.antHill.shutdownExecutors();
 		}
 		if (this.antHill.getAntCycles() >= optn_antsMaxAntCycles) { //While loop ended for this reason.
 			this.out_atAntCycleExecutionLimit = true;
@@ -2878,6 +4328,8 @@ public class DBACluster extends RandomizableClusterer implements TechnicalInform
 		
 		if (m_Debug) { System.out.println("# Perform final cleanup."); }
 		this.antHill = null; //Important for Weka.
+		this.featureMatrix = null;
+		this.neighborhoodIndex = null;
 		
 		if (m_Debug) { System.out.println("# DBACluster finished.\n"); }
 		
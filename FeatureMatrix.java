@@ -0,0 +1,259 @@
+package weka.clusterers;
+
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.NormalizableDistance;
+
+
+/**
+ * Immutable store for the attribute values of {@link weka.core.Instances},
+ * that allows to calculate distances between instances without going through
+ * {@link weka.core.Instance} objects and a {@link weka.core.DistanceFunction}.
+ * <p>
+ * The values are held row by row in one contiguous {@code double[]}, one row
+ * per instance and one column per attribute the distance function regards.
+ * The values are stored already normalized the same way the distance function
+ * normalizes them, so a distance between two rows only takes a loop over the
+ * columns. The results are the same as the results of the distance function.
+ * <p>
+ * A FeatureMatrix can only be built for the distance functions it knows, see
+ * {@link #forDistanceFunction(Instances, DistanceFunction)}. Clusterers should
+ * fall back to the distance function when no FeatureMatrix is available.
+ * 
+ * @version 0.9
+ * @author Christoph
+ */
+public class FeatureMatrix {
+	
+	/** Kernel calculating the euclidean distance like {@link weka.core.EuclideanDistance}. */
+	public static final int KERNEL_EUCLIDEAN = 0;
+	
+	/** Kernel calculating the manhattan distance like {@link weka.core.ManhattanDistance}. */
+	public static final int KERNEL_MANHATTAN = 1;
+	
+	/** Number of rows, one for each instance. */
+	protected final int numRows;
+	
+	/** Number of columns, one for each attribute regarded by the distance function. */
+	protected final int numColumns;
+	
+	/** The normalized values, row by row. */
+	protected final double[] values;
+	
+	/** Which kernel is used to calculate distances. */
+	protected final int kernel;
+	
+	
+	/**
+	 * Constructs a FeatureMatrix from already normalized values.
+	 * 
+	 * @param numRows number of rows
+	 * @param numColumns number of columns
+	 * @param values the values row by row, the array is not copied
+	 * @param kernel {@link #KERNEL_EUCLIDEAN} or {@link #KERNEL_MANHATTAN}
+	 */
+	protected FeatureMatrix(int numRows, int numColumns, double[] values, int kernel) {
+		this.numRows = numRows;
+		this.numColumns = numColumns;
+		this.values = values;
+		this.kernel = kernel;
+	}
+	
+	
+	/**
+	 * Builds a FeatureMatrix for {@code data}, that calculates the same
+	 * distances as {@code distanceFunction}.
+	 * <p>
+	 * This is only possible, if the distance function is exactly a
+	 * {@link weka.core.EuclideanDistance} or a {@link weka.core.ManhattanDistance}
+	 * regarding all attributes, all regarded attributes are numeric and no value
+	 * is missing. The ranges of the attributes are taken from the distance
+	 * function, so its instances must already be set.
+	 * 
+	 * @param data the instances to store, usually after missing values were
+	 *        replaced
+	 * @param distanceFunction the distance function to imitate
+	 * @return the FeatureMatrix, or null if it can not be built for the given
+	 *         parameters.
+	 */
+	public static FeatureMatrix forDistanceFunction(Instances data, DistanceFunction distanceFunction) {
+		int kernel;
+		if (!(distanceFunction instanceof NormalizableDistance)) {
+			return null;
+		}
+		if (distanceFunction.getClass() == EuclideanDistance.class) {
+			kernel = KERNEL_EUCLIDEAN;
+		}
+		else if (distanceFunction.getClass() == ManhattanDistance.class) {
+			kernel = KERNEL_MANHATTAN;
+		}
+		else { //Subclasses may calculate differently.
+			return null;
+		}
+		NormalizableDistance normalizableDistance = (NormalizableDistance) distanceFunction;
+		if (normalizableDistance.getInvertSelection() || !"first-last".equals(normalizableDistance.getAttributeIndices())) {
+			return null;
+		}
+		int classIndex = data.classIndex();
+		int numAttributes = data.numAttributes();
+		int[] columns = new int[numAttributes];
+		int numColumns = 0;
+		for (int i = 0; i < numAttributes; i++) {
+			if (i == classIndex) { //The distance function skips the class attribute, too.
+				continue;
+			}
+			if (!data.attribute(i).isNumeric()) {
+				return null;
+			}
+			columns[numColumns] = i;
+			numColumns++;
+		}
+		double[][] ranges = null;
+		if (!normalizableDistance.getDontNormalize()) {
+			try {
+				ranges = normalizableDistance.getRanges();
+			}
+			catch (Exception e) {
+				return null;
+			}
+		}
+		int numRows = data.size();
+		double[] values = new double[numRows * numColumns];
+		for (int row = 0; row < numRows; row++) {
+			Instance instance = data.get(row);
+			int offset = row * numColumns;
+			for (int column = 0; column < numColumns; column++) {
+				int attribute = columns[column];
+				if (instance.isMissing(attribute)) {
+					return null;
+				}
+				double value = instance.value(attribute);
+				if (ranges instanceof double[][]) { //Same normalization as NormalizableDistance.norm(double, int).
+					double[] range = ranges[attribute];
+					if (Double.isNaN(range[NormalizableDistance.R_MIN]) || range[NormalizableDistance.R_MAX] == range[NormalizableDistance.R_MIN]) {
+						value = 0;
+					}
+					else {
+						value = (value - range[NormalizableDistance.R_MIN]) / range[NormalizableDistance.R_WIDTH];
+					}
+				}
+				values[offset + column] = value;
+			}
+		}
+		return new FeatureMatrix(numRows, numColumns, values, kernel);
+	}
+	
+	
+	/**
+	 * Tells the number of rows, namely the number of stored instances.
+	 * 
+	 * @return number of rows.
+	 */
+	public int numRows() {
+		return this.numRows;
+	}
+	
+	
+	/**
+	 * Tells the number of columns, namely the number of regarded attributes.
+	 * 
+	 * @return number of columns.
+	 */
+	public int numColumns() {
+		return this.numColumns;
+	}
+	
+	
+	/**
+	 * Tells a normalized value.
+	 * 
+	 * @param row index of the instance
+	 * @param column index of the column
+	 * @return the normalized value.
+	 */
+	public double value(int row, int column) {
+		return this.values[row * this.numColumns + column];
+	}
+	
+	
+	/**
+	 * Adds the normalized values of a row to {@code sums}, e.g. for
+	 * calculating centroids.
+	 * 
+	 * @param row index of the instance
+	 * @param sums array of {@link #numColumns()} values to add to
+	 */
+	public void addRowTo(int row, double[] sums) {
+		int offset = row * this.numColumns;
+		for (int column = 0; column < this.numColumns; column++) {
+			sums[column] += this.values[offset + column];
+		}
+	}
+	
+	
+	/**
+	 * Tells the distance between two rows.
+	 * 
+	 * @param first index of the first instance
+	 * @param second index of the second instance
+	 * @return the distance between both instances.
+	 */
+	public double distance(int first, int second) {
+		return this.distance(this.values, first * this.numColumns, this.values, second * this.numColumns);
+	}
+	
+	
+	/**
+	 * Tells the distance between two points of normalized values, e.g.
+	 * centroids calculated with {@link #addRowTo(int, double[])}.
+	 * 
+	 * @param first {@link #numColumns()} normalized values
+	 * @param second {@link #numColumns()} normalized values
+	 * @return the distance between both points.
+	 */
+	public double distance(double[] first, double[] second) {
+		return this.distance(first, 0, second, 0);
+	}
+	
+	
+	/**
+	 * Calculates the distance between two points with the kernel of this
+	 * FeatureMatrix.
+	 * 
+	 * @param first array holding the first point
+	 * @param firstOffset index of the first value of the first point
+	 * @param second array holding the second point
+	 * @param secondOffset index of the first value of the second point
+	 * @return the distance between both points.
+	 */
+	protected double distance(double[] first, int firstOffset, double[] second, int secondOffset) {
+		double sum = 0.0;
+		if (this.kernel == KERNEL_EUCLIDEAN) {
+			for (int i = 0; i < this.numColumns; i++) {
+				double difference = first[firstOffset + i] - second[secondOffset + i];
+				sum += difference * difference;
+			}
+			return Math.sqrt(sum);
+		}
+		for (int i = 0; i < this.numColumns; i++) {
+			sum += Math.abs(first[firstOffset + i] - second[secondOffset + i]);
+		}
+		return sum;
+	}
+	
+	
+	/**
+	 * Returns a string representation of this object.
+	 * 
+	 * @return a string representing this object.
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "[fm:" + this.numRows + "," + this.numColumns + "," + (this.kernel == KERNEL_EUCLIDEAN ? "euclidean" : "manhattan") + "]";
+	}
+	
+}
@@ -0,0 +1,178 @@
+package weka.clusterers;
+
+import java.util.Arrays;
+
+
+/**
+ * {@linkplain NeighborhoodIndex} organizing the rows of a
+ * {@linkplain FeatureMatrix} in a k-d tree.
+ * <p>
+ * Each inner node splits its instances at the median of the column in which
+ * they spread widest. As the difference in one column is never greater than
+ * the euclidean or manhattan distance, a range query can skip every branch
+ * that is farther away from the queried instance in the split column than the
+ * range. The tree works best for few columns, with many columns most branches
+ * must be visited anyway.
+ * 
+ * @version 0.9
+ * @author Christoph
+ */
+public class KDTreeNeighborhoodIndex extends NeighborhoodIndex {
+	
+	/** The indexed instances. */
+	protected final FeatureMatrix featureMatrix;
+	
+	/** Instance indexes, each node covers a range of them. */
+	protected final int[] IDs;
+	
+	/** First position in {@link #IDs} covered by each node. */
+	protected int[] nodeFrom;
+	
+	/** Position after the last position in {@link #IDs} covered by each node. */
+	protected int[] nodeTo;
+	
+	/** Split column of each node, -1 for leaves. */
+	protected int[] nodeColumn;
+	
+	/** Split value of each node. The left child holds the values up to it, the right child the values from it on. */
+	protected double[] nodeValue;
+	
+	/** Left child of each node. */
+	protected int[] nodeLeft;
+	
+	/** Right child of each node. */
+	protected int[] nodeRight;
+	
+	/** Number of nodes. */
+	protected int numNodes = 0;
+	
+	
+	/**
+	 * Builds a k-d tree over all rows of a {@linkplain FeatureMatrix}.
+	 * 
+	 * @param featureMatrix the instances to index
+	 */
+	public KDTreeNeighborhoodIndex(FeatureMatrix featureMatrix) {
+		this.featureMatrix = featureMatrix;
+		int numRows = featureMatrix.numRows();
+		this.IDs = new int[numRows];
+		for (int i = 0; i < numRows; i++) {
+			this.IDs[i] = i;
+		}
+		int capacity = Math.max(1, 4 * (numRows / leafSize) + 1);
+		this.nodeFrom = new int[capacity];
+		this.nodeTo = new int[capacity];
+		this.nodeColumn = new int[capacity];
+		this.nodeValue = new double[capacity];
+		this.nodeLeft = new int[capacity];
+		this.nodeRight = new int[capacity];
+		double[] keys = new double[numRows];
+		this.build(0, numRows, keys);
+	}
+	
+	
+	/**
+	 * Builds the node covering a range of {@link #IDs} and its children.
+	 * 
+	 * @param from first position of the range
+	 * @param to position after the last position of the range
+	 * @param keys buffer for the values of the split column
+	 * @return the index of the node.
+	 */
+	protected int build(int from, int to, double[] keys) {
+		int node = this.numNodes;
+		if (node == this.nodeFrom.length) {
+			int capacity = node * 2;
+			this.nodeFrom = Arrays.copyOf(this.nodeFrom, capacity);
+			this.nodeTo = Arrays.copyOf(this.nodeTo, capacity);
+			this.nodeColumn = Arrays.copyOf(this.nodeColumn, capacity);
+			this.nodeValue = Arrays.copyOf(this.nodeValue, capacity);
+			this.nodeLeft = Arrays.copyOf(this.nodeLeft, capacity);
+			this.nodeRight = Arrays.copyOf(this.nodeRight, capacity);
+		}
+		this.numNodes++;
+		this.nodeFrom[node] = from;
+		this.nodeTo[node] = to;
+		this.nodeColumn[node] = -1;
+		if (to - from <= leafSize) {
+			return node;
+		}
+		int column = -1;
+		double widest = 0.0;
+		for (int c = 0; c < this.featureMatrix.numColumns(); c++) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = from; i < to; i++) {
+				double value = this.featureMatrix.value(this.IDs[i], c);
+				if (value < min) {
+					min = value;
+				}
+				if (value > max) {
+					max = value;
+				}
+			}
+			if (max - min > widest) {
+				widest = max - min;
+				column = c;
+			}
+		}
+		if (column < 0) { //All instances are at the same place.
+			return node;
+		}
+		for (int i = from; i < to; i++) {
+			keys[i] = this.featureMatrix.value(this.IDs[i], column);
+		}
+		int middle = (from + to) >>> 1;
+		select(this.IDs, keys, from, to, middle);
+		this.nodeColumn[node] = column;
+		this.nodeValue[node] = keys[middle];
+		int left = this.build(from, middle, keys);
+		int right = this.build(middle, to, keys);
+		this.nodeLeft[node] = left;
+		this.nodeRight[node] = right;
+		return node;
+	}
+	
+	
+	@Override
+	public void rangeQuery(int query, double radius, Result result) {
+		result.clear();
+		double bound = radius + radius * pruneSlack;
+		int depth = result.push(0, 0);
+		while (depth > 0) {
+			depth--;
+			int node = result.stack[depth];
+			int column = this.nodeColumn[node];
+			if (column < 0) {
+				for (int i = this.nodeFrom[node]; i < this.nodeTo[node]; i++) {
+					int ID = this.IDs[i];
+					double distance = this.featureMatrix.distance(query, ID);
+					if (distance <= radius) {
+						result.add(ID, distance);
+					}
+				}
+				continue;
+			}
+			double difference = this.featureMatrix.value(query, column) - this.nodeValue[node];
+			if (difference <= bound) {
+				depth = result.push(this.nodeLeft[node], depth);
+			}
+			if (-difference <= bound) {
+				depth = result.push(this.nodeRight[node], depth);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Returns a string representation of this object.
+	 * 
+	 * @return a string representing this object.
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "[kdtree:" + this.IDs.length + "," + this.numNodes + "]";
+	}
+	
+}
@@ -15,13 +15,26 @@
 
 package weka.clusterers;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 import weka.clusterers.AbstractClusterer;
 import weka.clusterers.ClusterEvaluation;
@@ -166,6 +179,45 @@ import weka.filters.unsupervised.attribute.ReplaceMissingValues;
  * <pre> -m
  *  Replace missing values.</pre>
  * 
+ * <pre> -es &lt;num&gt;
+ *  Number of execution slots. How many threads share the ant calls of one ant
+ *  cycle. The calls are made in rounds: the ants of a round decide in parallel
+ *  on the unchanged grid, then pick up, drop and walk in the order of their
+ *  indexes. The same seed and number of threads give bit-identical
+ *  assignments. Set to 1 to call all ants sequentially.
+ *  (default = 1)</pre>
+ * 
+ * <pre> -ee &lt;slots|antthreads&gt;
+ *  Execution engine. Set to slots to call randomly chosen ants in the
+ *  execution slots. Set to antthreads to give every ant a fixed number of
+ *  calls per ant cycle and let it decide on its work in its own thread.
+ *  Virtual threads are used when the Java runtime provides them, otherwise the
+ *  ants share the execution slots. The calls are made in rounds like in
+ *  several execution slots, only the decisions run in the threads of the ants.
+ *  The same seed and number of threads give bit-identical assignments.
+ *  (default = slots)</pre>
+ * 
+ * <pre> -dc &lt;num&gt;
+ *  Size of the distance cache, measured in number of instance pairs. When all
+ *  pairs fit, a full distance matrix is used, otherwise the recently used
+ *  pairs are kept. Set to 0 to turn the distance cache off.
+ *  (default = 0)</pre>
+ * 
+ * <pre> -sg
+ *  Store the grid sparsely. The grid is stored in tiles of 64 x 64 grid cells,
+ *  that are only allocated where GridInstances are dropped.
+ *  (default = false)</pre>
+ * 
+ * <pre> -oh
+ *  Store the grid off-heap. The grid surface is stored in direct buffers
+ *  outside of the Java heap. Ignored for a sparse grid.
+ *  (default = false)</pre>
+ * 
+ * <pre> -ohf &lt;file&gt;
+ *  File for the off-heap grid. The off-heap grid is mapped to this file,
+ *  which is overwritten. Leave empty to hold the off-heap grid in memory only.
+ *  (default = empty)</pre>
+ * 
  * <pre> -w
  *  This clusterer is used to make the clusters formed by the ants clear. It is
  *  applied in the end, when no more ant cycles must be executed.</pre>
@@ -193,6 +245,9 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 	/** How large a grid must be at least in each dimension. */
 	static final int gridMinSize = 3;
 	
+	/** How many grid cells a grid can have at most. Grid cells are addressed by int indexes and a dense grid in the heap is one array, whose length the JVM limits slightly below 2^31. */
+	static final long gridMaxCells = Integer.MAX_VALUE - 8;
+	
 	/** How many attempts an ant is allowed to make to drop its GridInstance regularly until it tries to get rid of it at shutdown. */
 	static final int antShutdownRegularAttempts = 10;
 	
@@ -202,6 +257,32 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 	static final int tag_DeneubourgEtAl = 1;
 	static final String tag_DeneubourgEtAlLabel = "symmetric";
 	static final Tag[] tags = { new Tag(tag_LumerFaieta, tag_LumerFaietaLabel), new Tag(tag_DeneubourgEtAl, tag_DeneubourgEtAlLabel) };
+	static final int tag_executionEngineSlots = 0;
+	static final String tag_executionEngineSlotsLabel = "slots";
+	static final int tag_executionEngineAntThreads = 1;
+	static final String tag_executionEngineAntThreadsLabel = "antthreads";
+	static final Tag[] tags_executionEngine = { new Tag(tag_executionEngineSlots, tag_executionEngineSlotsLabel), new Tag(tag_executionEngineAntThreads, tag_executionEngineAntThreadsLabel) };
+	
+	/** Work actions an ant can decide on in an ant call. */
+	static final int work_none = 0;
+	static final int work_pickUp = 1;
+	static final int work_destructivePickUp = 2;
+	static final int work_drop = 3;
+	
+	/** Edge length of the square tiles of a sparse grid (measured in grid cells), a power of two. */
+	static final int sparseGridTileSize = 64;
+	
+	/** Binary logarithm of {@link #sparseGridTileSize}. */
+	static final int sparseGridTileShift = 6;
+	
+	/** Binary logarithm of the number of grid cells in one buffer of an off-heap grid. A buffer can hold at most 2 GB. */
+	static final int offHeapGridChunkShift = 28;
+	
+	/** Number of instance pairs that share one set of the distance cache, when not all pairs fit into the cache. */
+	static final int distanceCacheWays = 8;
+	
+	/** Maximum number of locks guarding the sets of the distance cache. */
+	static final int distanceCacheLocks = 64;
 	
 	/** Notify the user when a certain number of ant cycles passed. If the algorithm takes long time to run it notifies the user that the program is still active. */
 	static final int debug_verboseEveryAntCyclesPassed = 100;
@@ -322,6 +403,103 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 	/** Replace missing values globally? */
 	protected boolean optn_replaceMissing = false; //-m
 	
+	/**
+	 * Number of threads that call ants in parallel during one ant cycle.
+	 * <p>
+	 * When this value is 1, all ants are called sequentially. With more
+	 * threads the ant calls of an ant cycle are made in rounds, in each round
+	 * an ant makes at most one call. The ants of a round decide on their work
+	 * in parallel while the grid is not changed, then they pick up, drop and
+	 * walk one after another in the order of their indexes. An ant cycle ends
+	 * when all rounds are done.
+	 * <p>
+	 * Every ant draws its random numbers from its own stream derived from the
+	 * seed and its index. <b>For a given seed and number of threads the
+	 * assignments are bit-identical</b>, no matter how the threads are
+	 * scheduled. With more than 1 thread they do not even depend on the
+	 * number of threads, but they differ from the sequential assignments, as
+	 * the ants of a round decide on the same grid.
+	 * 
+	 * @see LFCluster#runAntCallRounds(ExecutorService, int[], int)
+	 */
+	protected int optn_numExecutionSlots = 1; //-es
+	
+	/**
+	 * How the ants are called.
+	 * <p>
+	 * With execution slots the ants are randomly chosen for the calls of one
+	 * ant cycle, see {@link #optn_numExecutionSlots}. With ant threads every
+	 * ant makes a fixed share of the calls of the ant cycle and decides on its
+	 * work in its own thread, but carries it out on the calling thread. The
+	 * threads are virtual threads when the Java runtime provides them,
+	 * otherwise they share {@link #optn_numExecutionSlots} threads. Each ant
+	 * draws its random numbers from its own stream then, derived from the
+	 * seed. The calls are made in rounds like in several execution slots, so
+	 * the assignments are bit-identical for a given seed and number of
+	 * threads.
+	 * 
+	 * @see AntExecutors
+	 */
+	protected int optn_executionEngine = tag_executionEngineSlots; //-ee
+	
+	/**
+	 * Maximum number of instance pairs whose distances are cached.
+	 * <p>
+	 * The ants compare the same instances again and again while the piles on
+	 * the grid stabilize. When all instance pairs fit into the cache, a
+	 * full distance matrix is used. Otherwise the cache keeps the recently
+	 * used pairs. Cached distances are stored as float values. Set to 0 to
+	 * calculate every distance with the distance function.
+	 * 
+	 * @see DistanceCache
+	 */
+	protected int optn_distanceCacheSize = 0; //-dc
+	
+	/**
+	 * Store the grid in tiles, that are only allocated when the first
+	 * GridInstance is dropped into them.
+	 * <p>
+	 * At least {@link #gridMinFreeSpace} of the grid stays free, and usually
+	 * the piles leave most of the grid empty. A sparse grid takes memory only
+	 * for the tiles that were used, and the ants skip empty tiles when they
+	 * look at their view range. Reading a grid cell takes a little longer
+	 * than on a dense grid.
+	 * 
+	 * @see Grid
+	 */
+	protected boolean optn_sparseGrid = false; //-sg
+	
+	/**
+	 * Store the grid surface outside of the Java heap.
+	 * <p>
+	 * The surface of a large dense grid is one huge array, that the garbage
+	 * collector must copy or scan and that must fit into the heap. An
+	 * off-heap grid keeps the grid cells in direct buffers instead, or in a
+	 * file mapped into memory, see {@link #optn_offHeapGridFile}. A sparse
+	 * grid is never stored off-heap.
+	 * <p>
+	 * Direct buffers take 4 bytes per grid cell, which count against the
+	 * limit {@code -XX:MaxDirectMemorySize} of the JVM. It defaults to the
+	 * maximum heap size, so for a grid that does not fit into the heap it
+	 * must be raised, e.g. {@code -XX:MaxDirectMemorySize=1g} for a grid of
+	 * 9000 x 9000 grid cells. A grid mapped to a file does not count against
+	 * that limit.
+	 * 
+	 * @see Grid
+	 */
+	protected boolean optn_offHeapGrid = false; //-oh
+	
+	/**
+	 * File the off-heap grid is mapped to. It is overwritten. If empty, the
+	 * off-heap grid is only held in memory.
+	 * <p>
+	 * The mapping is not released when the clusterer is done, but only when
+	 * the garbage collector frees the buffers. Until then the file can not be
+	 * truncated on Windows, so building the clusterer again with the same
+	 * file may fail there. Use another file for each run in that case.
+	 */
+	protected String optn_offHeapGridFile = ""; //-ohf
+	
 	/** Clusterer that is used to explain the clusters (instance groups) on the grid. */
 	protected Clusterer optn_gridClusterer = new AntGridClusterer(); //-w
 	
@@ -353,6 +531,12 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 	/** Replace missing values filter. */
 	protected ReplaceMissingValues replaceMissingValuesFilter;
 	
+	/** Normalized attribute values of {@link #data} for fast distance calculation, or null when the distance function is not supported. */
+	protected FeatureMatrix featureMatrix = null;
+	
+	/** Cache for the distances between instances, or null when not used. */
+	protected DistanceCache distanceCache = null;
+	
 	/** Random number generator. */
 	protected Random rand = null; //It is required globally, and can not be instantiated every time it is used, because the generator starts with the same seed then again -> always same numbers are generated.
 	
@@ -362,6 +546,15 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 	/** String output of the used gridClusterer. */
 	protected String out_gridClustererResults = null;
 	
+	/** Description of the distance cache used recently, or null when no distance cache was used. */
+	protected String out_distanceCacheMode = null;
+	
+	/** How often a distance was found in the distance cache during the recent clustering. */
+	protected long out_distanceCacheHits = 0;
+	
+	/** How often a distance was not found in the distance cache during the recent clustering. */
+	protected long out_distanceCacheMisses = 0;
+	
 	/** The default constructor. */
 	public LFCluster() {
 		super();
@@ -1116,6 +1309,223 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 	}
 	
 	
+	/**
+	 * Tip text provider for the number of execution slots setting.
+	 * 
+	 * @return Text that briefly describes the number of execution slots
+	 *         setting.
+	 */
+	public String numExecutionSlotsTipText() {
+		return "How many threads call the ants of one ant cycle in parallel, set to 1 to call all ants sequentially. The same seed and number of threads give the same assignments.";
+	}
+	
+	
+	/**
+	 * Sets the number of threads that call the ants of one ant cycle in
+	 * parallel.
+	 * 
+	 * @param value number of execution slots
+	 * @throws IllegalArgumentException if {@code value} is smaller than 1 and
+	 *         debug mode is activated.
+	 */
+	public void setNumExecutionSlots(int value) throws IllegalArgumentException {
+		if (value < 1) {
+			if (m_Debug) {
+				throw new IllegalArgumentException("The number of execution slots must be a positive integer value.");
+			}
+			else {
+				value = 1;
+			}
+		}
+		this.optn_numExecutionSlots = value;
+	}
+	
+	
+	/**
+	 * Tells how many threads call the ants of one ant cycle in parallel.
+	 * 
+	 * @return number of execution slots.
+	 */
+	public int getNumExecutionSlots() {
+		return this.optn_numExecutionSlots;
+	}
+	
+	
+	/**
+	 * Tip text provider for the execution engine setting.
+	 * 
+	 * @return Text that briefly describes the execution engine setting.
+	 */
+	public String executionEngineTipText() {
+		return "Call randomly chosen ants in the execution slots, or give every ant a fixed number of calls per ant cycle and let it decide on its work in its own (virtual) thread. In both cases the ants pick up, drop and walk one after another, so the same seed and number of threads give bit-identical assignments.";
+	}
+	
+	
+	/**
+	 * Sets how the ants are called.
+	 * 
+	 * @param value a {@link SelectedTag} naming the execution engine.
+	 * @throws IllegalArgumentException if in debug mode and {@code value} is not a
+	 *         known {@link SelectedTag}.
+	 */
+	public void setExecutionEngine(SelectedTag value) throws IllegalArgumentException {
+		if (value.getTags() == tags_executionEngine) {
+			this.optn_executionEngine = value.getSelectedTag().getID();
+		}
+		else {
+			if (m_Debug) {
+				throw new IllegalArgumentException("The execution engine can only be set to known tags.");
+			}
+			else {
+				this.optn_executionEngine = tag_executionEngineSlots;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Tells how the ants are called.
+	 * 
+	 * @return the {@link SelectedTag} naming the current execution engine.
+	 */
+	public SelectedTag getExecutionEngine() {
+		return new SelectedTag(this.optn_executionEngine, tags_executionEngine);
+	}
+	
+	
+	/**
+	 * Tip text provider for the distance cache size setting.
+	 * 
+	 * @return Text that briefly describes the distance cache size setting.
+	 */
+	public String distanceCacheSizeTipText() {
+		return "How many instance pairs the distance cache can hold, set to 0 to turn the distance cache off.";
+	}
+	
+	
+	/**
+	 * Sets how many instance pairs the distance cache can hold. Set to 0 to
+	 * turn the distance cache off.
+	 * 
+	 * @param value size of the distance cache in instance pairs
+	 * @throws IllegalArgumentException if {@code value} is negative and debug
+	 *         mode is activated.
+	 */
+	public void setDistanceCacheSize(int value) throws IllegalArgumentException {
+		if (value < 0) {
+			if (m_Debug) {
+				throw new IllegalArgumentException("The size of the distance cache must be a positive integer value or 0.");
+			}
+			else {
+				value = 0;
+			}
+		}
+		this.optn_distanceCacheSize = value;
+	}
+	
+	
+	/**
+	 * Tells how many instance pairs the distance cache can hold.
+	 * 
+	 * @return size of the distance cache in instance pairs.
+	 */
+	public int getDistanceCacheSize() {
+		return this.optn_distanceCacheSize;
+	}
+	
+	
+	/**
+	 * Tip text provider for the sparse grid setting.
+	 * 
+	 * @return Text that briefly describes the sparse grid setting.
+	 */
+	public String sparseGridTipText() {
+		return "Store the grid in tiles, that are only allocated where GridInstances are dropped. This saves memory on large, sparsely populated grids.";
+	}
+	
+	
+	/**
+	 * Sets if the grid is stored in tiles allocated on first write.
+	 * 
+	 * @param value true for a sparse grid, false for a dense one.
+	 */
+	public void setSparseGrid(boolean value) {
+		this.optn_sparseGrid = value;
+	}
+	
+	
+	/**
+	 * Tells if the grid is stored in tiles allocated on first write.
+	 * 
+	 * @return true for a sparse grid, false for a dense one.
+	 */
+	public boolean getSparseGrid() {
+		return this.optn_sparseGrid;
+	}
+	
+	
+	/**
+	 * Tip text provider for the off-heap grid setting.
+	 * 
+	 * @return Text that briefly describes the off-heap grid setting.
+	 */
+	public String offHeapGridTipText() {
+		return "Store the grid surface outside of the Java heap, so huge grids need no heap space and the garbage collector does not have to process them. Without a file, the grid takes 4 bytes per grid cell of direct memory, which is limited to the maximum heap size unless -XX:MaxDirectMemorySize is raised.";
+	}
+	
+	
+	/**
+	 * Sets if the grid surface is stored outside of the Java heap.
+	 * 
+	 * @param value true for an off-heap grid, false for a grid in the heap.
+	 */
+	public void setOffHeapGrid(boolean value) {
+		this.optn_offHeapGrid = value;
+	}
+	
+	
+	/**
+	 * Tells if the grid surface is stored outside of the Java heap.
+	 * 
+	 * @return true for an off-heap grid, false for a grid in the heap.
+	 */
+	public boolean getOffHeapGrid() {
+		return this.optn_offHeapGrid;
+	}
+	
+	
+	/**
+	 * Tip text provider for the off-heap grid file setting.
+	 * 
+	 * @return Text that briefly describes the off-heap grid file setting.
+	 */
+	public String offHeapGridFileTipText() {
+		return "File the off-heap grid is mapped to, it is overwritten. Leave empty to hold the off-heap grid in memory only. The file stays mapped until the garbage collector frees the grid, so on Windows a second run with the same file may fail.";
+	}
+	
+	
+	/**
+	 * Sets the file the off-heap grid is mapped to.
+	 * 
+	 * @param value path of the file, or an empty string to hold the off-heap
+	 *        grid in memory only.
+	 */
+	public void setOffHeapGridFile(String value) {
+		this.optn_offHeapGridFile = value instanceof String ? value : "";
+	}
+	
+	
+	/**
+	 * Tells the file the off-heap grid is mapped to.
+	 * 
+	 * @return path of the file, or an empty string if the off-heap grid is
+	 *         held in memory only.
+	 */
+	public String getOffHeapGridFile() {
+		return this.optn_offHeapGridFile;
+	}
+	
+	
 	/**
 	 * Tip text provider for the grid clusterer setting.
 	 * 
@@ -1172,6 +1582,12 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		result.addElement(new Option("\tAfter how many ant cycles carrying nothing an ant switches to destructive behavior.\n\tWhen an ant did not pick up an instance for the given amount of ant cycles it becomes destructive and picks up the next instance it can find regardless of the neighborhood of the instance. Set to -1 to let ants never behave destructive.", "abdc", 1, "-abdc <num>"));
 		result.addElement(new Option("\tHow many times an ant will pick up an instance regardless of its environment before it switches back to normal behavior.\n\tThe ant will pick up as many as specified instances immediately and regardless of the instance environment once the ant turned to destructive behavoir. When an ant picked up enough instances in destructive behavior it turns back to normal behavior again. Set to -1 to let ants remain destructive once they changed their behavior.", "abdn", 1, "-abdn <num>"));
 		result.addElement(new Option("\tReplace missing values.\n\tReplace missing values globally.\n\t(default = true)", "m", 0, "-m"));
+		result.addElement(new Option("\tNumber of execution slots.\n\tHow many threads share the ant calls of one ant cycle. The calls are made in rounds: the ants of a round decide in parallel on the unchanged grid, then pick up, drop and walk in the order of their indexes. The same seed and number of threads give bit-identical assignments. Set to 1 to call all ants sequentially.\n\t(default = 1)", "es", 1, "-es <num>"));
+		result.addElement(new Option("\tExecution engine.\n\tSet to slots to call randomly chosen ants in the execution slots. Set to antthreads to give every ant a fixed number of calls per ant cycle and let it decide on its work in its own thread. Virtual threads are used when the Java runtime provides them, otherwise the ants share the execution slots. The calls are made in rounds like in several execution slots, only the decisions run in the threads of the ants. The same seed and number of threads give bit-identical assignments.\n\t(default = slots)", "ee", 1, "-ee <slots|antthreads>"));
+		result.addElement(new Option("\tSize of the distance cache.\n\tHow many instance pairs the distance cache can hold. When all pairs fit, a full distance matrix is used, otherwise the recently used pairs are kept. Cached distances are stored as float values. Set to 0 to turn the distance cache off.\n\t(default = 0)", "dc", 1, "-dc <num>"));
+		result.addElement(new Option("\tStore the grid sparsely.\n\tThe grid is stored in tiles of " + sparseGridTileSize + " x " + sparseGridTileSize + " grid cells, that are only allocated where GridInstances are dropped, and the ants skip empty tiles in their view range. This saves memory on large, sparsely populated grids, but reading a grid cell takes a little longer.\n\t(default = false)", "sg", 0, "-sg"));
+		result.addElement(new Option("\tStore the grid off-heap.\n\tThe grid surface is stored in direct buffers outside of the Java heap, so the garbage collector does not have to process them. They take 4 bytes per grid cell and are limited by -XX:MaxDirectMemorySize, which defaults to the maximum heap size, so raise it for huge grids. Ignored for a sparse grid.\n\t(default = false)", "oh", 0, "-oh"));
+		result.addElement(new Option("\tFile for the off-heap grid.\n\tThe off-heap grid is mapped to this file, which is overwritten. Leave empty to hold the off-heap grid in memory only. The file stays mapped until the grid is garbage collected, so on Windows a second run with the same file may fail.\n\t(default = empty)", "ohf", 1, "-ohf <file>"));
 		result.addElement(new Option("\tCluster algorithm for finding clusters on the grid.\n\tThis clusterer is used to make the clusters formed by the ants clear. It is applied in the end, when no more ant cycles must be executed.", "w", 1, "-w"));
 		result.addAll(Collections.list(super.listOptions()));
 		if (this.optn_gridClusterer instanceof OptionHandler) {
@@ -1287,6 +1703,30 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		
 		this.setReplaceMissing(Utils.getFlag("m", options));
 		
+		temp = Utils.getOption("es", options);
+		if (temp.length() > 0) {
+			this.setNumExecutionSlots(Integer.parseInt(temp));
+		}
+		
+		temp = Utils.getOption("ee", options);
+		if (temp.compareTo(tag_executionEngineAntThreadsLabel) == 0) {
+			this.setExecutionEngine(new SelectedTag(tag_executionEngineAntThreads, tags_executionEngine));
+		}
+		else {
+			this.setExecutionEngine(new SelectedTag(tag_executionEngineSlots, tags_executionEngine));
+		}
+		
+		temp = Utils.getOption("dc", options);
+		if (temp.length() > 0) {
+			this.setDistanceCacheSize(Integer.parseInt(temp));
+		}
+		
+		this.setSparseGrid(Utils.getFlag("sg", options));
+		
+		this.setOffHeapGrid(Utils.getFlag("oh", options));
+		
+		this.setOffHeapGridFile(Utils.getOption("ohf", options));
+		
 		temp = Utils.getOption("w", options);
 		if (temp.length() > 0) {
 			this.setGridClusterer(AbstractClusterer.forName(temp, null));
@@ -1369,6 +1809,31 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			result.add("-m");
 		}
 		
+		result.add("-es");
+		result.add("" + this.getNumExecutionSlots());
+		
+		result.add("-ee");
+		switch (this.optn_executionEngine) {
+			case tag_executionEngineSlots: result.add(tag_executionEngineSlotsLabel); break;
+			case tag_executionEngineAntThreads: result.add(tag_executionEngineAntThreadsLabel); break;
+		}
+		
+		result.add("-dc");
+		result.add("" + this.getDistanceCacheSize());
+		
+		if (this.optn_sparseGrid) {
+			result.add("-sg");
+		}
+		
+		if (this.optn_offHeapGrid) {
+			result.add("-oh");
+		}
+		
+		if (this.optn_offHeapGridFile.length() > 0) {
+			result.add("-ohf");
+			result.add(this.optn_offHeapGridFile);
+		}
+		
 		Collections.addAll(result, super.getOptions());
 		
 		result.add("-w");
@@ -1851,26 +2316,20 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 * This is a memory for ants where they can remember positions. An ant
 		 * can remember a position, e.g. where it did something like dropping or
 		 * picking up a {@linkplain GridInstance}.
+		 * <p>
+		 * Each entry consists of the index of a GridInstance and a grid cell.
+		 * Both are stored in plain arrays, so memorizing and recalling entries
+		 * does not create any objects.
 		 */
 		protected class PositionMemory {
 			
-			/* Internal class. */
-			protected class PositionMemoryEntry {
+			/** Indexes of the memorized GridInstances, -1 marks an empty entry. */
+			protected int[] memorizedGridInstances = null;
 				
-				public GridInstance gridInstance;
-				public Coordinate position;
+			/** Grid cells of the memorized entries, belonging to {@link #memorizedGridInstances}. */
+			protected int[] memorizedPositions = null;
 				
-				public PositionMemoryEntry(GridInstance gridInstance, Coordinate pos) {
-					this.gridInstance = gridInstance;
-					this.position = new Coordinate(pos);
-				}
-				
-			}
-			
-			/** The actual memory as array. */
-			protected PositionMemoryEntry[] memorized = null;
-			
-			/** Position where to insert the next entry in {@link #memorized}. */
+			/** Position where to insert the next entry in {@link #memorizedGridInstances}. */
 			private int nextInsertPosition = 0;
 			
 			/**
@@ -1879,31 +2338,34 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			 * @param size size of the memory.
 			 */
 			public PositionMemory(int size) {
-				this.memorized = new PositionMemoryEntry[size];
-				this.nextInsertPosition = 0;
+				this.memorizedGridInstances = new int[size];
+				this.memorizedPositions = new int[size];
+				this.empty();
 			}
 			
 			
 			/**
 			 * Remember a new position together with a {@linkplain GridInstance}.
 			 * 
-			 * @param gridInstance GridInstance to be remembered together with
-			 *        {@code pos}.
-			 * @param pos position to be remembered together with {@code gridInstance}.
+			 * @param gridInstance index of the GridInstance to be remembered
+			 *        together with {@code pos}.
+			 * @param pos grid cell to be remembered together with {@code gridInstance}.
 			 */
-			public void memorize(GridInstance gridInstance, Coordinate pos) {
-				if (!(gridInstance instanceof GridInstance) || !(pos instanceof Coordinate)) {
+			public void memorize(int gridInstance, int pos) {
+				if (gridInstance < 0 || pos < 0) {
 					return;
 				}
-					/*if (!(this.memorized[0] instanceof PositionMemoryEntry)) { //Activate this block (1/2), to force ants always to the first memory entry.
-						this.memorized[0] = new PositionMemoryEntry(gridInstance, pos);
+					/*if (this.memorizedGridInstances[0] < 0) { //Activate this block (1/2), to force ants always to the first memory entry.
+						this.memorizedGridInstances[0] = gridInstance;
+						this.memorizedPositions[0] = pos;
 					}
 					else {
 						return;
 					}*/
-				this.memorized[this.nextInsertPosition] = new PositionMemoryEntry(gridInstance, pos);
+				this.memorizedGridInstances[this.nextInsertPosition] = gridInstance;
+				this.memorizedPositions[this.nextInsertPosition] = pos;
 				this.nextInsertPosition++;
-				if (nextInsertPosition >= this.memorized.length) {
+				if (nextInsertPosition >= this.memorizedGridInstances.length) {
 					nextInsertPosition = 0;
 				}
 			}
@@ -1913,15 +2375,15 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			 * Retrieve a specific memory position.
 			 * 
 			 * @param index index of the memory position entry to recall.
-			 * @return position of the memorized entry with the provided {@code index}
-			 *         or null when there is no entry at the given {@code index}.
+			 * @return grid cell of the memorized entry with the provided {@code index}
+			 *         or -1 when there is no entry at the given {@code index}.
 			 */
-			public Coordinate getPosition(int index) {
-				if (this.memorized[index] instanceof PositionMemoryEntry) {
-					return this.memorized[index].position;
+			public int getPosition(int index) {
+				if (this.memorizedGridInstances[index] >= 0) {
+					return this.memorizedPositions[index];
 				}
 				else {
-					return null;
+					return -1;
 				}
 			}
 			
@@ -1932,30 +2394,31 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			 * GridInstance objects to each other, so the distance function of
 			 * the options is used here.
 			 * 
-			 * @param gridInstance gridInstance to seek a similar position for.
-			 * @return the position of the GridInstance in memory that is most
-			 *         similar to the given {@code gridInstance} or null, if
+			 * @param gridInstance index of the GridInstance to seek a similar
+			 *        position for.
+			 * @return the grid cell of the GridInstance in memory that is most
+			 *         similar to the given {@code gridInstance} or -1, if
 			 *         nothing was found or the memory is not yet completely
 			 *         filled.
 			 * @see LFCluster#setDistanceFunction(DistanceFunction)
 			 */
-			public Coordinate getPositionOfMostSimilarGridInstance(GridInstance gridInstance) {
-				PositionMemoryEntry bestMatch = null;
+			public int getPositionOfMostSimilarGridInstance(int gridInstance) {
+				int bestMatch = -1;
 				double bestMatchDistance = 0.0;
-					/*if (this.memorized[0] instanceof PositionMemoryEntry) { //Activate this block (2/2), to force ants always to the first memory entry.
-						return this.memorized[0].position;
+					/*if (this.memorizedGridInstances[0] >= 0) { //Activate this block (2/2), to force ants always to the first memory entry.
+						return this.memorizedPositions[0];
 					}*/
-				for (PositionMemoryEntry entry : this.memorized) {
-					if (entry == null) {
-						return null; //Do not use the memory yet, unless it is filled, because in the beginning there can be only one GridInstance and this always and drags the ant to one position.
+				for (int i = 0; i < this.memorizedGridInstances.length; i++) {
+					if (this.memorizedGridInstances[i] < 0) {
+						return -1; //Do not use the memory yet, unless it is filled, because in the beginning there can be only one GridInstance and this always and drags the ant to one position.
 					}
-					double entryDistance = optn_distanceFunction.distance(gridInstance.getInstance(), entry.gridInstance.getInstance());
-					if (!(bestMatch instanceof PositionMemoryEntry) || entryDistance < bestMatchDistance) {
-						bestMatch = entry;
+					double entryDistance = distance(gridInstance, this.memorizedGridInstances[i]);
+					if (bestMatch < 0 || entryDistance < bestMatchDistance) {
+						bestMatch = i;
 						bestMatchDistance = entryDistance;
 					}
 				}
-				return (bestMatch instanceof PositionMemoryEntry) ? bestMatch.position : null;
+				return (bestMatch >= 0) ? this.memorizedPositions[bestMatch] : -1;
 			}
 			
 			
@@ -1963,7 +2426,8 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			 * Empties this PositionMemory.
 			 */
 			public void empty() {
-				this.memorized = new PositionMemoryEntry[this.memorized.length];
+				Arrays.fill(this.memorizedGridInstances, -1);
+				Arrays.fill(this.memorizedPositions, -1);
 				this.nextInsertPosition = 0;
 			}
 			
@@ -1974,7 +2438,7 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			 * @return capacity of this PositionMemory.
 			 */
 			public int size() {
-				return this.memorized.length;
+				return this.memorizedGridInstances.length;
 			}
 			
 		}
@@ -2001,20 +2465,20 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		protected int dropRange = 0;
 		
 		/**
-		 * Position, where the ant currently is.
+		 * Grid cell, where the ant currently is.
 		 * 
-		 * @see Coordinate
+		 * @see Grid#getCell(int, int)
 		 */
-		protected Coordinate position = null;
+		protected int position = -1;
 		
 		/**
-		 * Load of the ant. When the ant carries a {@linkplain GridInstance} object it is
-		 * stored here, if the ant is not carrying anything the variable is
-		 * null.
+		 * Load of the ant. When the ant carries a {@linkplain GridInstance} object its
+		 * index is stored here, if the ant is not carrying anything the
+		 * variable is -1.
 		 * 
 		 * @see GridInstance
 		 */
-		protected GridInstance carry = null;
+		protected int carry = -1;
 		
 		/**
 		 * The memory of the ant for memorizing the recent drop locations. If
@@ -2025,13 +2489,21 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		/**
 		 * The destination to which the ant wants to go when it carries a
 		 * {@linkplain GridInstance} and therefore wants to drop it somewhere. When the ant
-		 * has a drop destination this variable holds a {@link Coordinate} object
-		 * (otherwise null) and the ant must only perform moves on the grid that
-		 * bring the ant closer to the destination.
+		 * has a drop destination this variable holds its grid cell (otherwise
+		 * -1) and the ant must only perform moves on the grid that bring the
+		 * ant closer to the destination.
+		 * 
+		 * @see Grid#getCell(int, int)
+		 */
+		protected int dropDestination = -1;
+		
+		/**
+		 * Reusable buffer for the free grid cells in the drop range of this
+		 * ant.
 		 * 
-		 * @see Coordinate
+		 * @see #getGridFreePositionsInDropRange(int[])
 		 */
-		protected Coordinate dropDestination = null;
+		protected int[] dropRangeCells = null;
 		
 		/**
 		 * After how many ant cycles carrying nothing the ant behaves
@@ -2056,6 +2528,35 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 */
 		protected int destructivePickUpsCount = 0;
 		
+		/**
+		 * Own random number stream of this ant, derived from the seed and the
+		 * index of the ant. The random numbers it draws do not depend on which
+		 * thread calls the ant. If it is null, the ant uses
+		 * {@link LFCluster#rand} shared by all ants.
+		 * 
+		 * @see LFCluster#optn_numExecutionSlots
+		 */
+		protected SplittableRandom random = null;
+		
+		/**
+		 * The work this ant decided on in its last call, one of
+		 * {@link LFCluster#work_none}, {@link LFCluster#work_pickUp},
+		 * {@link LFCluster#work_destructivePickUp} and
+		 * {@link LFCluster#work_drop}. It is carried out by
+		 * {@link #commitWork()}.
+		 * 
+		 * @see #proposeWork()
+		 */
+		protected int proposedWork = work_none;
+		
+		/**
+		 * Index of the {@linkplain GridInstance} this ant decided to pick up,
+		 * or -1.
+		 * 
+		 * @see #proposedWork
+		 */
+		protected int proposedGridInstance = -1;
+		
 		/**
 		 * For statistical purpose. How often this ant was called.
 		 */
@@ -2105,6 +2606,7 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			this.viewRange = viewRange < 0 ? 0 : viewRange;
 			this.speed = speed < 0 ? 0 : speed;
 			this.dropRange = dropRange < 0 ? 0 : dropRange;
+			this.dropRangeCells = new int[((2 * this.dropRange) + 1) * ((2 * this.dropRange) + 1)];
 			this.setPosition(startPosition);
 			this.dropMemory = dropMemorySize > 0 ? new PositionMemory(dropMemorySize) : null;
 			this.behaviorDestructiveAfterNumFreeCycles = behaviorDestructiveAfterNumFreeCycles > 0 ? behaviorDestructiveAfterNumFreeCycles : -1;
@@ -2123,51 +2625,105 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		
 		
 		/**
-		 * Place this ant on the given position on the grid.
+		 * Gives this ant its own random number stream, so it does not share
+		 * {@link LFCluster#rand} with ants running in other threads.
 		 * 
-		 * @param position the new position of the ant.
+		 * @param random the random number stream of this ant, or null to use
+		 *        the shared random number generator.
 		 */
-		public void setPosition(Coordinate position) {
-			if (!grid.positionIsValid(position)) {
-				throw new IllegalArgumentException("The new position for the ant is not a valid position on the grid! Can not place the ant here.");
-			}
-			this.position = position;
+		public void setRandom(SplittableRandom random) {
+			this.random = random;
 		}
 		
 		
 		/**
-		 * Tells the position where the ant currently is.
+		 * Draws a random integer from the random number stream of this ant.
 		 * 
-		 * @return the current position of this ant.
+		 * @param bound upper bound (exclusive), must be positive
+		 * @return a random integer between 0 (inclusive) and {@code bound}
+		 *         (exclusive).
 		 */
-		public Coordinate getPosition() {
-			return this.position;
+		protected int nextInt(int bound) {
+			if (this.random instanceof SplittableRandom) {
+				return this.random.nextInt(bound);
+			}
+			return rand.nextInt(bound);
 		}
 		
 		
 		/**
-		 * Tells if this ant is currently carrying a {@linkplain GridInstance}.
+		 * Draws a random double value from the random number stream of this
+		 * ant.
 		 * 
-		 * @return true, if the ant carries a GridInstance.
+		 * @return a random value between 0.0 (inclusive) and 1.0 (exclusive).
 		 */
-		public boolean carriesGridInstance() {
-			return this.carry instanceof GridInstance;
+		protected double nextDouble() {
+			if (this.random instanceof SplittableRandom) {
+				return this.random.nextDouble();
+			}
+			return rand.nextDouble();
 		}
 		
 		
 		/**
-		 * Returns the drop memory of this ant.
+		 * Place this ant on the given position on the grid.
 		 * 
-		 * @return the drop memory of this ant or null, if the ant has no drop
-		 *         memory.
+		 * @param position the new position of the ant.
 		 */
-		protected PositionMemory getDropMemory() {
-			return this.dropMemory;
+		public void setPosition(Coordinate position) {
+			if (!grid.positionIsValid(position)) {
+				throw new IllegalArgumentException("The new position for the ant is not a valid position on the grid! Can not place the ant here.");
+			}
+			this.position = grid.getCell(position.x, position.y);
 		}
 		
 		
 		/**
-		 * Tells if this ant has a drop memory or not.
+		 * Place this ant in the given grid cell.
+		 * 
+		 * @param cell index of the grid cell where the ant is placed.
+		 */
+		protected void setPosition(int cell) {
+			if (!grid.cellIsValid(cell)) {
+				throw new IllegalArgumentException("The new position for the ant is not a valid position on the grid! Can not place the ant here.");
+			}
+			this.position = cell;
+		}
+		
+		
+		/**
+		 * Tells the position where the ant currently is.
+		 * 
+		 * @return the current position of this ant.
+		 */
+		public Coordinate getPosition() {
+			return grid.getCellPosition(this.position);
+		}
+		
+		
+		/**
+		 * Tells if this ant is currently carrying a {@linkplain GridInstance}.
+		 * 
+		 * @return true, if the ant carries a GridInstance.
+		 */
+		public boolean carriesGridInstance() {
+			return this.carry >= 0;
+		}
+		
+		
+		/**
+		 * Returns the drop memory of this ant.
+		 * 
+		 * @return the drop memory of this ant or null, if the ant has no drop
+		 *         memory.
+		 */
+		protected PositionMemory getDropMemory() {
+			return this.dropMemory;
+		}
+		
+		
+		/**
+		 * Tells if this ant has a drop memory or not.
 		 * 
 		 * @return true, if the ant has a drop memory.
 		 */
@@ -2180,23 +2736,24 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 * Sets a drop destination for this ant. The ant walks in the direction
 		 * to the destination only when it walks.
 		 * 
-		 * @param destination the drop destination of this ant.
+		 * @param destination grid cell of the drop destination of this ant or
+		 *        -1 for no drop destination.
 		 */
-		protected void setDropDestination(Coordinate destination) {
-			if (destination != null && !grid.positionIsValid(destination)) {
-				throw new IllegalArgumentException("The drop destination is not a valid Coordinate that can be found on the grid.");
+		protected void setDropDestination(int destination) {
+			if (destination >= 0 && !grid.cellIsValid(destination)) {
+				throw new IllegalArgumentException("The drop destination is not a valid grid cell that can be found on the grid.");
 			}
-			this.dropDestination = destination;
+			this.dropDestination = destination < 0 ? -1 : destination;
 		}
 		
 		
 		/**
 		 * Tells the drop destination of this ant.
 		 * 
-		 * @return the drop destination of this ant or null when the ant has no
-		 *         drop destination.
+		 * @return grid cell of the drop destination of this ant or -1 when the
+		 *         ant has no drop destination.
 		 */
-		protected Coordinate getDropDestination() {
+		protected int getDropDestination() {
 			return this.dropDestination;
 		}
 		
@@ -2205,7 +2762,7 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 * Makes the ant forget its drop destination.
 		 */
 		protected void deleteDropDestination() {
-			this.dropDestination = null;
+			this.dropDestination = -1;
 		}
 		
 		
@@ -2214,22 +2771,16 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 * ant is not allowed to use its drop memory it will not tell favorite
 		 * drop destinations.  
 		 * 
-		 * @param instance the GridInstance to search a favorite drop
+		 * @param instance index of the GridInstance to search a favorite drop
 		 *        destination for.
-		 * @return The favorite drop destination or null, if there is no
-		 *         favorite drop destination.
+		 * @return grid cell of the favorite drop destination or -1, if there
+		 *         is no favorite drop destination.
 		 */
-		protected Coordinate chooseDropDestinationFor(GridInstance instance) {
-			Coordinate found = null;
-			if (this.hasDropMemory()) { //If the ant is not allowed to use its memory no destination will be set below.
-				found = this.getDropMemory().getPositionOfMostSimilarGridInstance(instance);
-			}
-			if (found instanceof Coordinate) { //Can also be null, when nothing similar was found in the memory.
-				return found; 
-			}
-			else {
-				return null;
+		protected int chooseDropDestinationFor(int instance) {
+			if (this.hasDropMemory()) { //If the ant is not allowed to use its memory no destination will be set.
+				return this.getDropMemory().getPositionOfMostSimilarGridInstance(instance); //Can also be -1, when nothing similar was found in the memory.
 			}
+			return -1;
 		}
 		
 		
@@ -2239,17 +2790,17 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 * @return true, if the ant has a drop destination.
 		 */
 		protected boolean hasDropDestination() {
-			return this.dropDestination instanceof Coordinate;
+			return this.dropDestination >= 0;
 		}
 		
 		
 		/**
 		 * Tell the ant to add a new drop location to the drop memory.
 		 * 
-		 * @param last the recently dropped {@linkplain GridInstance}
-		 * @param where where the GridInstance {@code last} was dropped.
+		 * @param last index of the recently dropped {@linkplain GridInstance}
+		 * @param where grid cell where the GridInstance {@code last} was dropped.
 		 */
-		protected void updateDropMemory(GridInstance last, Coordinate where) {
+		protected void updateDropMemory(int last, int where) {
 			if (this.hasDropMemory()) { //Is the ant allowed to use its drop memory?
 				this.dropMemory.memorize(last, where);
 			}
@@ -2279,6 +2830,30 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		}
 		
 		
+		/**
+		 * Lets the ant decide on its work of an ant call without changing the
+		 * grid. The ant only reads the grid, so several ants can decide at
+		 * the same time. The call is completed by {@link #commit()}.
+		 * 
+		 * @param antCycle the current ant cycle in which the ant is called.
+		 * @see LFCluster#runAntCallRounds(ExecutorService, int[], int)
+		 */
+		public void propose(int antCycle) {
+			this.currentAntCycle = antCycle;
+			this.proposeWork();
+		}
+		
+		
+		/**
+		 * Completes an ant call started by {@link #propose(int)}. The ant
+		 * carries out its work, if the grid still allows it, and walks.
+		 */
+		public void commit() {
+			this.commitWork();
+			this.walk();
+		}
+		
+		
 		/**
 		 * Start the working process of this ant.
 		 * <p>
@@ -2292,25 +2867,39 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 * the ant does nothing during a work call.
 		 */
 		protected void work() {
+			this.proposeWork();
+			this.commitWork();
+		}
+		
+		
+		/**
+		 * Decides on the work action of this ant, see {@link #work()}. The
+		 * grid is not changed, the decision is kept in
+		 * {@link #proposedWork}.
+		 */
+		protected void proposeWork() {
+			this.proposedWork = work_none;
+			this.proposedGridInstance = -1;
 			if (this.behaviorDestructiveAfterNumFreeCycles > 0 && (this.currentAntCycle - this.lastActedAntCycle) > this.behaviorDestructiveAfterNumFreeCycles) { //Become destructive? Lumer/Faieta 1994, p. 507: Ants become destructive when they did not manipulate an instance for a preset number of ant cycles (not ant calls).
 				this.destructivePickUpsCount = this.behaviorDestructiveForNextPickUps;
 			}
-			if ((this.destructivePickUpsCount > 0 || this.destructivePickUpsCount == -1) && grid.positionHasGridInstance(this.position) && !this.carriesGridInstance()) { //Behave destructive?
-				this.pickGridInstance(this.position);
+			if ((this.destructivePickUpsCount > 0 || this.destructivePickUpsCount == -1) && grid.cellHasGridInstance(this.position) && !this.carriesGridInstance()) { //Behave destructive?
+				this.proposedWork = work_destructivePickUp;
 				return;
 			}
-			if (!this.carriesGridInstance() && grid.positionHasGridInstance(this.position)) { //Ant can pick up a gridInstance (normal).
-				GridInstance gridInstance = grid.previewGridInstance(this.position);
-				if (gridInstance instanceof GridInstance) {
+			if (!this.carriesGridInstance() && grid.cellHasGridInstance(this.position)) { //Ant can pick up a gridInstance (normal).
+				int gridInstance = grid.previewGridInstanceIndex(this.position);
+				if (gridInstance >= 0) {
 					if (this.doesWantToPickUp(gridInstance)) {
-						this.pickGridInstance(this.position);
+						this.proposedWork = work_pickUp;
+						this.proposedGridInstance = gridInstance;
 					}
 				}
 				return;
 			}
-			if (this.carriesGridInstance() && grid.positionHasFreeStorage(this.position)) { //Ant can drop the gridInstance (normal).
+			if (this.carriesGridInstance() && grid.cellHasFreeStorage(this.position)) { //Ant can drop the gridInstance (normal).
 				if (this.doesWantToDrop()) {
-					this.dropGridInstance();
+					this.proposedWork = work_drop;
 				}
 				return;
 			}
@@ -2318,6 +2907,37 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		}
 		
 		
+		/**
+		 * Carries out the work action decided by {@link #proposeWork()}. Ants
+		 * committing before this ant may have changed the grid since, then the
+		 * action is only carried out if it is still possible: a GridInstance
+		 * is only picked up if it is still at the position of the ant, and the
+		 * carried GridInstance is only dropped if the position is still free.
+		 */
+		protected void commitWork() {
+			int work = this.proposedWork;
+			this.proposedWork = work_none;
+			switch (work) {
+				case work_destructivePickUp:
+					if (grid.cellHasGridInstance(this.position)) {
+						this.pickGridInstance(this.position);
+					}
+					break;
+				case work_pickUp:
+					if (grid.previewGridInstanceIndex(this.position) == this.proposedGridInstance) {
+						this.pickGridInstance(this.position);
+					}
+					break;
+				case work_drop:
+					if (grid.cellHasFreeStorage(this.position)) {
+						this.dropGridInstance();
+					}
+					break;
+			}
+			this.proposedGridInstance = -1;
+		}
+		
+		
 		/**
 		 * Moves an ant on the grid.
 		 * <p>
@@ -2335,54 +2955,63 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 * destination.
 		 */
 		protected void walk() {
-			if (!(this.position instanceof Coordinate)) {
-				throw new NullPointerException("The ant position is not a valid Coordinate.");
+			if (!grid.cellIsValid(this.position)) {
+				throw new NullPointerException("The ant position is not a valid grid cell.");
 			}
-			Coordinate destination = null; //The destination, if any, the ant faces.
+			int x = grid.getCellX(this.position);
+			int y = grid.getCellY(this.position);
+			int destination = -1; //The grid cell of the destination, if any, the ant faces.
+			int destinationX = 0;
+			int destinationY = 0;
 			if (this.carriesGridInstance() && this.hasDropDestination()) {
 				destination = this.getDropDestination();
-				if (m_Debug && !grid.positionIsValid(destination)) {
+				if (m_Debug && !grid.cellIsValid(destination)) {
 					throw new NullPointerException("The pick up destination of the ant is not a valid position on the grid.");
 				}
+				destinationX = grid.getCellX(destination);
+				destinationY = grid.getCellY(destination);
 			}
 			int walkDirection = 0;
-			if (this.dropDestination instanceof Coordinate && this.position.equals(destination)) {
+			if (destination >= 0 && this.position == destination) {
 				this.deleteDropDestination(); //To be safe, otherwise an undeleted but reached drop destination may cause an infinite loop later in choosing the walkDirection.
 				return; //The ant reached its destination.
 			}
 			do { //Determine walk direction.
-				walkDirection = rand.nextInt(4);
+				walkDirection = this.nextInt(4);
 			}
 			while (
-					(walkDirection == 0 && grid.getDistanceToTopBorder(this.position) <= 0) || 
-					(walkDirection == 1 && grid.getDistanceToBottomBorder(this.position) <= 0) || 
-					(walkDirection == 2 && grid.getDistanceToLeftBorder(this.position) <= 0) || 
-					(walkDirection == 3 && grid.getDistanceToRightBorder(this.position) <= 0) || 
-					(this.getDropDestination() instanceof Coordinate && walkDirection == 0 && (this.position.isAboveOf(destination) || this.position.hasSameY(destination))) || 
-					(this.getDropDestination() instanceof Coordinate && walkDirection == 1 && (this.position.isBelowOf(destination) || this.position.hasSameY(destination))) || 
-					(this.getDropDestination() instanceof Coordinate && walkDirection == 2 && (this.position.isLeftOf(destination) || this.position.hasSameX(destination))) || 
-					(this.getDropDestination() instanceof Coordinate && walkDirection == 3 && (this.position.isRightOf(destination) || this.position.hasSameX(destination)))
+					(walkDirection == 0 && grid.ySize - y - 1 <= 0) || //Top border.
+					(walkDirection == 1 && y <= 0) || //Bottom border.
+					(walkDirection == 2 && x <= 0) || //Left border.
+					(walkDirection == 3 && grid.xSize - x - 1 <= 0) || //Right border.
+					(destination >= 0 && walkDirection == 0 && y >= destinationY) || 
+					(destination >= 0 && walkDirection == 1 && y <= destinationY) || 
+					(destination >= 0 && walkDirection == 2 && x <= destinationX) || 
+					(destination >= 0 && walkDirection == 3 && x >= destinationX)
 					);
 			for (int i = 1; i <= this.speed; i++) {
-				Coordinate intendedPosition = new Coordinate(this.position); //The next position where the ant wants to go to. But if the ant attempts to move out of the grid this is not a valid movement attempt. So test movement first with intendedPosition.
+				int intendedX = x; //The next position where the ant wants to go to. But if the ant attempts to move out of the grid this is not a valid movement attempt. So test movement first with the intended position.
+				int intendedY = y;
 				switch (walkDirection) { //Determine the position where the ant should go next.
-					case 0: intendedPosition.moveUp(1); break;
-					case 1: intendedPosition.moveDown(1); break;
-					case 2: intendedPosition.moveLeft(1); break;
-					case 3: intendedPosition.moveRight(1); break;
+					case 0: intendedY++; break;
+					case 1: intendedY--; break;
+					case 2: intendedX--; break;
+					case 3: intendedX++; break;
 				}
-				if (!grid.positionIsValid(intendedPosition) || 
-						destination instanceof Coordinate && (
-								(walkDirection == 0 && intendedPosition.isAboveOf(destination)) || 
-								(walkDirection == 1 && intendedPosition.isBelowOf(destination)) || 
-								(walkDirection == 2 && intendedPosition.isLeftOf(destination)) || 
-								(walkDirection == 3 && intendedPosition.isRightOf(destination))
+				if (!grid.positionIsValid(intendedX, intendedY) || 
+						destination >= 0 && (
+								(walkDirection == 0 && intendedY > destinationY) || 
+								(walkDirection == 1 && intendedY < destinationY) || 
+								(walkDirection == 2 && intendedX < destinationX) || 
+								(walkDirection == 3 && intendedX > destinationX)
 								)
 						) {
 					break; //The ant can not go further in this direction.
 				}
-				this.setPosition(intendedPosition); //Go there.
-				if (this.carriesGridInstance() && this.position.equals(this.getDropDestination())) {
+				x = intendedX; //Go there.
+				y = intendedY;
+				this.position = grid.getCell(x, y);
+				if (this.carriesGridInstance() && this.position == this.getDropDestination()) {
 					this.deleteDropDestination(); //The destination must be deleted immediately after the ant reached it and not when it picks up or drops a gridInstance there. If the destination is not deleted right now and the environment is not suitable for the carried gridInstance, the ant is pulled back to this location the next time it walks, although the ant already decided not to drop the carried GridInstance here.
 					break; //Always stop walking when the ant reaches a destination, regardless of how many steps remain to give the ant a chance to work here the next time it is called.
 				}
@@ -2391,63 +3020,37 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		}
 		
 		
-		/**
-		 * Lists all {@linkplain GridInstance} objects in the current view range.
-		 * <p>
-		 * The GridInstance objects found depend on the size of the ants view
-		 * range and the current position of this ant.
-		 * 
-		 * @return an {@link ArrayList} of all found GridInstance objects in the ants
-		 *         view range.
-		 * @see #viewRange
-		 * @see #position
-		 */
-		protected ArrayList<GridInstance> getGridInstancesInViewRange() {
-			ArrayList<GridInstance> list = new ArrayList<GridInstance>(5);
-			int xStart = this.position.x - this.viewRange;
-			int xStop = this.position.x + this.viewRange;
-			int yStart = this.position.y - this.viewRange;
-			int yStop = this.position.y + this.viewRange;
-			for (int i = xStart; i <= xStop; i++) {
-				for (int j = yStart; j <= yStop; j++) {
-					GridInstance preview = grid.previewGridInstance(new Coordinate(i, j));
-					if (preview instanceof GridInstance) {
-						list.add(preview);
-					}
-				}
-			}
-			list.trimToSize();
-			return list;
-		}
-		
-		
 		/**
 		 * Lists all free positions on the grid in the current drop range.
 		 * <p>
 		 * The positions that are found depend on the size of the ants drop
-		 * range and the current position of this ant.
+		 * range and the current position of this ant. They are written as grid
+		 * cells to the beginning of the given array, which must be able to
+		 * hold all grid cells of the drop range.
 		 * 
-		 * @return an {@link ArrayList} of all found free positions in the ants
-		 *         drop range.
+		 * @param cells array to write the found grid cells to
+		 * @return number of free grid cells found in the ants drop range.
 		 * @see #dropRange
 		 * @see #position
 		 */
-		protected ArrayList<Coordinate> getGridFreePositionsInDropRange() {
-			ArrayList<Coordinate> list = new ArrayList<Coordinate>(5);
-			int xStart = this.position.x - this.dropRange;
-			int xStop = this.position.x + this.dropRange;
-			int yStart = this.position.y - this.dropRange;
-			int yStop = this.position.y + this.dropRange;
+		protected int getGridFreePositionsInDropRange(int[] cells) {
+			int count = 0;
+			int x = grid.getCellX(this.position);
+			int y = grid.getCellY(this.position);
+			int xStart = Math.max(x - this.dropRange, 0); //Positions outside of the grid can not take GridInstances.
+			int xStop = Math.min(x + this.dropRange, grid.xSize - 1);
+			int yStart = Math.max(y - this.dropRange, 0);
+			int yStop = Math.min(y + this.dropRange, grid.ySize - 1);
 			for (int i = xStart; i <= xStop; i++) {
 				for (int j = yStart; j <= yStop; j++) {
-					Coordinate preview = new Coordinate(i, j);
-					if (grid.positionHasFreeStorage(preview)) {
-						list.add(preview);
+					int cell = grid.getCell(i, j);
+					if (grid.cellHasFreeStorage(cell)) {
+						cells[count] = cell;
+						count++;
 					}
 				}
 			}
-			list.trimToSize();
-			return list;
+			return count;
 		}
 		
 		
@@ -2461,27 +3064,40 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 * does not include the provided {@code instance} in the calculation of the
 		 * local similarity.
 		 * 
-		 * @param instance the GridInstance object to calculate the local
-		 *        similarity for
+		 * <p>
+		 * The GridInstances in the view range of the ant are read as indexes
+		 * directly from the grid surface, no GridInstance objects are created.
+		 * 
+		 * @param instance index of the GridInstance object to calculate the
+		 *        local similarity for
 		 * @return the local similarity of {@code instance} as a double value
 		 * @see #position
+		 * @see #viewRange
 		 */
-		protected double calculateFoi(GridInstance instance) { //Lumer/Faieta 1994, p. 503. See also Zhe et al. 2011, p. 117 and others listed in the thesis.
+		protected double calculateFoi(int instance) { //Lumer/Faieta 1994, p. 503. See also Zhe et al. 2011, p. 117 and others listed in the thesis.
 			double sum = 0.0;
 			double foi = 0.0;
-			ArrayList<GridInstance> neighbors = this.getGridInstancesInViewRange();
-			if (neighbors.size() == 0) { //When there are no neighbors there is no further need to calculate foi. Return 0.
-				return 0;
-			}
-			Instance regardedInstance = instance.getInstance();
-			for (GridInstance neighbor : neighbors) {
-				if (!this.carriesGridInstance() && neighbor.equals(instance)) { //For this GridInstance on the grid the foi should be calculated, but itself must not be regarded in the calculation.
-					continue;
+			int x = grid.getCellX(this.position);
+			int y = grid.getCellY(this.position);
+			int xStart = Math.max(x - this.viewRange, 0); //Positions outside of the grid can not hold GridInstances.
+			int xStop = Math.min(x + this.viewRange, grid.xSize - 1);
+			int yStart = Math.max(y - this.viewRange, 0);
+			int yStop = Math.min(y + this.viewRange, grid.ySize - 1);
+			double div = alpha + ((alpha * (this.speed - 1)) / optn_antsSpeedDistributionLimit); //E.g. Lumer/Faieta 1994, p. 504, Zhe et al. 2011, p. 118.
+			boolean carries = this.carriesGridInstance();
+			for (int i = xStart; i <= xStop; i++) {
+				for (int j = yStart; j <= yStop; j++) {
+					int neighbor = grid.previewGridInstanceIndex(grid.getCell(i, j));
+					if (neighbor < 0) {
+						j += grid.getFreeCellsAbove(i, j); //Empty tiles of a sparse grid are skipped.
+						continue;
+					}
+					if (!carries && neighbor == instance) { //For this GridInstance on the grid the foi should be calculated, but itself must not be regarded in the calculation.
+						continue;
+					}
+					double distance = distance(instance, neighbor);
+					sum = sum + (1.0 - (distance / div));
 				}
-				double distance = optn_distanceFunction.distance(regardedInstance, neighbor.getInstance());
-				double div = 0.0;
-				div = alpha + ((alpha * (this.speed - 1)) / optn_antsSpeedDistributionLimit); //E.g. Lumer/Faieta 1994, p. 504, Zhe et al. 2011, p. 118.
-				sum = sum + (1.0 - (distance / div));
 			}
 			int viewRangeEdgeLength = (2 * this.viewRange) + 1;
 			foi = ((1.0 / (viewRangeEdgeLength * viewRangeEdgeLength)) * sum); //1.0 instead of 1, because otherwise division with two integers and result is integer 0! Lumer/Faieta 1994, p. 503: "d^2 equals the total number of sites [grid cells] in the local area of interest".
@@ -2493,14 +3109,14 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 * Calculates if the ant does want to pick up the given {@code instance}.
 		 * <p>
 		 * As this method depends on the calculation result of
-		 * {@link #calculateFoi(GridInstance)}, the {@linkplain #position} of the ant is relevant.
+		 * {@link #calculateFoi(int)}, the {@linkplain #position} of the ant is relevant.
 		 * 
-		 * @param instance the {@linkplain GridInstance} for which the pick up decision
-		 *        should be made
+		 * @param instance index of the {@linkplain GridInstance} for which the
+		 *        pick up decision should be made
 		 * @return true, if the ant wants to pick up {@code instance} now, false if not.
 		 */
-		protected boolean doesWantToPickUp(GridInstance instance) {
-			if (!grid.positionHasGridInstance(this.position) || !grid.previewGridInstance(this.position).equals(instance)) {
+		protected boolean doesWantToPickUp(int instance) {
+			if (grid.previewGridInstanceIndex(this.position) != instance) {
 				if (m_Debug) {
 					throw new RuntimeException("The position " + this.position + " of the ant does not contain the GridInstance " + instance + " the ant wants to pick up.");
 				}
@@ -2509,7 +3125,7 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			double foi = this.calculateFoi(instance);
 			double pre = optn_kp / (optn_kp + foi);
 			double pickUpProbability = pre * pre;
-			double randThreshold = rand.nextDouble();
+			double randThreshold = this.nextDouble();
 			if (randThreshold <= pickUpProbability) { //Ant decided to pick up the gridInstance.
 				return true;
 			}
@@ -2524,7 +3140,7 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 * {@linkplain GridInstance}.
 		 * <p>
 		 * As this method depends on the calculation result of
-		 * {@link #calculateFoi(GridInstance)}, the {@linkplain #position} of the ant is relevant.
+		 * {@link #calculateFoi(int)}, the {@linkplain #position} of the ant is relevant.
 		 * 
 		 * @return true, if the ant wants to drop the carried GridInstance here,
 		 *         false if the ant wants to keep on carrying the GridInstance
@@ -2548,7 +3164,7 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 					dropProbability = 1.0;
 				}
 			}
-			double randThreshold = rand.nextDouble();
+			double randThreshold = this.nextDouble();
 			if (randThreshold <= dropProbability) { //Ant decided to drop the gridInstance.
 				return true;
 			}
@@ -2561,21 +3177,21 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		/**
 		 * Executes the actual pick up process for an {@linkplain GridInstance} on the grid.
 		 * 
-		 * @param position the position from where the ant should pick up an
+		 * @param position the grid cell from where the ant should pick up an
 		 *        GridInstance.
 		 * @return true, if the ant successfully picked up a GridInstance at the
 		 *         {@code position}, false if the ant could not pick up the GridInstance
 		 *         for any reason.
 		 */
-		protected boolean pickGridInstance(Coordinate position) {
+		protected boolean pickGridInstance(int position) {
 			if (this.carriesGridInstance()) { //Check first: Can the ant pick up a gridInstance? Maybe this method is called when the ant carries a gridInstance.
 				if (m_Debug) {
 					throw new RuntimeException("The ant tries to pick up an GridInstance, but already has one.");
 				}
 				return false;
 			}
-			GridInstance instance = grid.pickGridInstance(position);
-			if (instance instanceof GridInstance) { //The ant successfully picked up an instance.
+			int instance = grid.pickGridInstanceIndex(position);
+			if (instance >= 0) { //The ant successfully picked up an instance.
 				this.carry = instance;
 				this.pickUpCounter++;
 				this.destructivePickUpsCount = this.destructivePickUpsCount > 0 ? this.destructivePickUpsCount - 1 : this.destructivePickUpsCount;
@@ -2605,29 +3221,27 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 				}
 				return false;
 			}
-			Coordinate dropPosition; //Drop somewhere in drop range or not? Determine the dropPosition first.
+			int dropPosition; //Drop somewhere in drop range or not? Determine the dropPosition first.
 			if (this.dropRange > 0) {
-				ArrayList<Coordinate> list = new ArrayList<Coordinate>();
-				list = this.getGridFreePositionsInDropRange();
-				int size = list.size();
-				if (size == 0) { //No free positions found in the CoordinateArea. Running rand.nextInt(0) would cause an error.
+				int size = this.getGridFreePositionsInDropRange(this.dropRangeCells);
+				if (size == 0) { //No free positions found in the drop range. Running rand.nextInt(0) would cause an error.
 					return false; //Can not drop.
 				}
-				int pos = rand.nextInt(size);
-				dropPosition = new Coordinate(list.get(pos));
+				int pos = this.nextInt(size);
+				dropPosition = this.dropRangeCells[pos];
 			}
 			else {
-				dropPosition = new Coordinate(this.position);
+				dropPosition = this.position;
 			} //Now the drop position is known and the GridInstance can be dropped regularly.
-			if (grid.dropGridInstance(this.carry, dropPosition)) {
+			if (grid.dropGridInstanceIndex(this.carry, dropPosition)) {
 				this.deleteDropDestination();
 				this.updateDropMemory(this.carry, dropPosition);
-				this.carry = null;
+				this.carry = -1;
 				this.notifyActionInAntCycle(this.currentAntCycle);	
 				return true;
 			}
 			else {
-				if (this.dropRange > 0 && this.getGridFreePositionsInDropRange().size() > 0) {
+				if (this.dropRange > 0 && this.getGridFreePositionsInDropRange(this.dropRangeCells) > 0) {
 					return this.dropGridInstance(); //Try again.
 				}
 				else {
@@ -2656,7 +3270,7 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 */
 		@Override
 		public String toString() {
-			return "Ant(position=" + this.position + 
+			return "Ant(position=" + this.getPosition() + 
 					", carries=" + this.carry + 
 					", speed=" + this.speed + 
 					", visualRange=" + this.viewRange + 
@@ -2676,11 +3290,11 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			if (!this.carriesGridInstance()) {
 				return; //Shutdown done.
 			}
-			Coordinate dropDestination = this.getDropDestination();
+			int dropDestination = this.getDropDestination();
 			this.deleteDropDestination(); //More freedom to walk somewhere.
 			if (this.carriesGridInstance() && this.hasDropMemory()) {
-				Coordinate positionOfMostSimilar = this.getDropMemory().getPositionOfMostSimilarGridInstance(this.carry);
-				if (positionOfMostSimilar instanceof Coordinate) {
+				int positionOfMostSimilar = this.getDropMemory().getPositionOfMostSimilarGridInstance(this.carry);
+				if (positionOfMostSimilar >= 0) {
 					this.setPosition(positionOfMostSimilar);
 				}
 			}
@@ -2695,7 +3309,7 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 				}
 				this.walk();
 			}
-			if (dropDestination instanceof Coordinate) { //Revert previous state, although ant is likely not used anymore. The dropDestination could have been also null before. 
+			if (dropDestination >= 0) { //Revert previous state, although ant is likely not used anymore. The dropDestination could have been also -1 before. 
 				this.setDropDestination(dropDestination);
 			}
 		}
@@ -2706,6 +3320,17 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 	/**
 	 * The grid object where the {@linkplain GridInstance} objects are placed and the ants
 	 * run to cluster these GridInstance objects.
+	 * <p>
+	 * The surface is either one dense array or, for a sparse grid, a set of
+	 * square tiles of {@link LFCluster#sparseGridTileSize} grid cells edge
+	 * length, that are only allocated when the first GridInstance is dropped
+	 * into them, see {@link LFCluster#optn_sparseGrid}. An off-heap grid
+	 * keeps the dense surface in direct or memory-mapped buffers, see
+	 * {@link LFCluster#optn_offHeapGrid}.
+	 * <p>
+	 * Ants deciding in parallel only read the grid. It is changed by one ant
+	 * at a time on the thread calling the ants, see
+	 * {@link LFCluster#runAntCallRounds(ExecutorService, int[], int)}.
 	 */
 	protected class Grid {
 		
@@ -2721,36 +3346,64 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		
 		/**
 		 * The surface of the grid as an array, where the {@linkplain GridInstance} are
-		 * placed. The two dimensions of the array represent the two grid
-		 * dimensions, where the first one is the x dimension.
+		 * placed. The grid cells are stored row by row, so the grid cell
+		 * {@code (x,y)} is found at the index {@code y * xSize + x}. This index
+		 * is the encoding of a position used by all methods working on grid
+		 * cells instead of {@linkplain Coordinate} objects. It is null for a
+		 * sparse grid.
+		 * 
+		 * @see #getCell(int, int)
 		 */
-		protected int[][] surface;
+		protected int[] surface;
 		
 		/**
-		 * An association of {@linkplain GridInstance} object indexes to positions, to
-		 * answer the question where a GridInstance is without checking each
-		 * position of the surface until the GridInstance is found.
+		 * The tiles of a sparse grid row by row, or null for a dense grid.
+		 * Tiles that never held a {@linkplain GridInstance} are null. A tile
+		 * holds its grid cells row by row, each grid cell holds the
+		 * GridInstance index plus one, so a new tile needs no filling.
 		 */
-		protected Coordinate[] gridInstances;
+		protected int[][] tiles;
+		
+		/**
+		 * Number of tiles of a sparse grid in the x dimension.
+		 */
+		protected int tilesX;
+		
+		/**
+		 * The surface of an off-heap grid, or null for a grid in the heap. The
+		 * grid cells are stored row by row like in {@link #surface}, each
+		 * buffer holds 2^{@link LFCluster#offHeapGridChunkShift} grid cells.
+		 * Each grid cell holds the GridInstance index plus one, as new buffers
+		 * and files are filled with zeros.
+		 */
+		protected IntBuffer[] offHeapSurface;
+		
+		/**
+		 * An association of {@linkplain GridInstance} object indexes to grid
+		 * cells, to answer the question where a GridInstance is without
+		 * checking each position of the surface until the GridInstance is
+		 * found. GridInstances that are not on the grid have the value -1.
+		 */
+		protected int[] gridInstances;
 		
 		
 		/**
 		 * For statistical purposes. Memorize how often ants visited each grid
 		 * cell.
 		 */
-//		private int[][] debug_antPresence;
+//		private int[] debug_antPresence;
 		
 		/**
 		 * For statistical purposes. Memorize how many {@linkplain GridInstance} objects were
 		 * picked up from each grid cell.
 		 */
-//		private int[][] debug_pickUps;
+//		private int[] debug_pickUps;
 		
 		/**
 		 * For statistical purposes. Memorize how many {@linkplain GridInstance} objects were
 		 * dropped to each grid cell.
 		 */
-//		private int[][] debug_drops;
+//		private int[] debug_drops;
 		
 		
 		/**
@@ -2760,23 +3413,217 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 * @param y size of the grid in the y dimension.
 		 * @param gridInstanceCapacity how many {@linkplain GridInstance} objects are stored
 		 *        on this grid.
+		 * @param sparse true, if the tiles of the grid should be allocated on
+		 *        first write, false for one dense array.
+		 * @param offHeap true, if a dense surface should be stored outside of
+		 *        the Java heap.
+		 * @param offHeapFile file to map an off-heap surface to, or an empty
+		 *        string to hold it in memory only.
+		 * @throws IOException if {@code offHeapFile} can not be mapped.
+		 * @throws IllegalArgumentException if the grid has more than
+		 *         {@value LFCluster#gridMaxCells} grid cells.
 		 */
-		public Grid(int x, int y, int gridInstanceCapacity) {
+		public Grid(int x, int y, int gridInstanceCapacity, boolean sparse, boolean offHeap, String offHeapFile) throws IOException, IllegalArgumentException {
 			this.xSize = x > 0 ? x : 0;
 			this.ySize = y > 0 ? y : 0;
-			this.surface = new int[this.xSize][this.ySize];
-			this.gridInstances = new Coordinate[(gridInstanceCapacity > 0 ? gridInstanceCapacity : 0)];
-//			this.debug_antPresence = new int[this.xSize][this.ySize];
-//			this.debug_pickUps = new int[this.xSize][this.ySize];
-//			this.debug_drops = new int[this.xSize][this.ySize];
-			for (int i = 0; i < this.xSize; i++) {
-				for (int j = 0; j < this.ySize; j++) {
-					this.surface[i][j] = -1; //Because 0 is already a valid GridInstance index.
-//					this.debug_antPresence[i][j] = 0;
-//					this.debug_pickUps[i][j] = 0;
-//					this.debug_drops[i][j] = 0;
+			if ((long) this.xSize * this.ySize > gridMaxCells) {
+				throw new IllegalArgumentException("The grid of " + this.xSize + " x " + this.ySize + " grid cells is too large. Grid cells are addressed by int indexes, so a grid can have at most " + gridMaxCells + " grid cells, also a sparse or an off-heap grid.");
+			}
+			this.gridInstances = new int[(gridInstanceCapacity > 0 ? gridInstanceCapacity : 0)];
+			if (sparse) {
+				this.tilesX = (this.xSize + sparseGridTileSize - 1) >> sparseGridTileShift;
+				int tilesY = (this.ySize + sparseGridTileSize - 1) >> sparseGridTileShift;
+				this.tiles = new int[this.tilesX * tilesY][];
+			}
+			else if (offHeap) {
+				this.offHeapSurface = allocateOffHeapSurface((long) this.xSize * this.ySize, offHeapFile);
+			}
+			else {
+				this.surface = new int[this.xSize * this.ySize];
+				Arrays.fill(this.surface, -1); //Because 0 is already a valid GridInstance index.
+			}
+//			this.debug_antPresence = new int[this.xSize * this.ySize];
+//			this.debug_pickUps = new int[this.xSize * this.ySize];
+//			this.debug_drops = new int[this.xSize * this.ySize];
+			Arrays.fill(this.gridInstances, -1);
+		}
+		
+		
+		/**
+		 * Allocates the buffers of an off-heap surface, filled with zeros.
+		 * <p>
+		 * Direct buffers count against {@code -XX:MaxDirectMemorySize}. Mapped
+		 * buffers are never unmapped explicitly, the mapping is released when
+		 * the garbage collector frees them. On Windows a file that is still
+		 * mapped can not be truncated, so mapping the same file again can fail.
+		 * 
+		 * @param numCells number of grid cells
+		 * @param fileName file to map the buffers to, or an empty string for
+		 *        direct buffers.
+		 * @return the buffers, each holding 2^{@link LFCluster#offHeapGridChunkShift}
+		 *         grid cells, the last one possibly less.
+		 * @throws IOException if the file can not be mapped.
+		 */
+		protected IntBuffer[] allocateOffHeapSurface(long numCells, String fileName) throws IOException {
+			int numChunks = (int) ((numCells + (1L << offHeapGridChunkShift) - 1) >> offHeapGridChunkShift);
+			IntBuffer[] chunks = new IntBuffer[numChunks];
+			if (fileName.length() == 0) {
+				for (int i = 0; i < numChunks; i++) {
+					long chunkCells = Math.min(1L << offHeapGridChunkShift, numCells - ((long) i << offHeapGridChunkShift));
+					chunks[i] = ByteBuffer.allocateDirect((int) chunkCells * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+				}
+				return chunks;
+			}
+			RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+			try {
+				try {
+					file.setLength(0); //Remove old content, the new length is filled with zeros.
+				}
+				catch (IOException e) {
+					throw new IOException("The off-heap grid file " + fileName + " can not be overwritten. It may still be mapped by a former grid, which is only released by the garbage collector, so use another file.", e);
 				}
+				file.setLength(numCells * 4);
+				FileChannel channel = file.getChannel();
+				for (int i = 0; i < numChunks; i++) {
+					long chunkCells = Math.min(1L << offHeapGridChunkShift, numCells - ((long) i << offHeapGridChunkShift));
+					chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, ((long) i << offHeapGridChunkShift) * 4, chunkCells * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+				}
+			}
+			finally {
+				file.close(); //The mapping stays valid.
 			}
+			return chunks;
+		}
+		
+		
+		/**
+		 * Reads a grid cell of the surface. The {@code cell} must be valid.
+		 * 
+		 * @param cell index of the grid cell
+		 * @return the index of the GridInstance in {@code cell} or -1 if
+		 *         there is none.
+		 */
+		protected final int getSurfaceValue(int cell) {
+			if (this.surface instanceof int[]) {
+				return this.surface[cell];
+			}
+			if (this.offHeapSurface instanceof IntBuffer[]) {
+				return this.offHeapSurface[cell >>> offHeapGridChunkShift].get(cell & ((1 << offHeapGridChunkShift) - 1)) - 1;
+			}
+			int x = this.getCellX(cell);
+			int y = this.getCellY(cell);
+			int[] tile = this.tiles[(y >> sparseGridTileShift) * this.tilesX + (x >> sparseGridTileShift)];
+			if (!(tile instanceof int[])) {
+				return -1;
+			}
+			return tile[((y & (sparseGridTileSize - 1)) << sparseGridTileShift) | (x & (sparseGridTileSize - 1))] - 1;
+		}
+		
+		
+		/**
+		 * Writes a grid cell of the surface. The {@code cell} must be valid.
+		 * 
+		 * @param cell index of the grid cell
+		 * @param index index of the GridInstance for {@code cell}, -1 for
+		 *        none.
+		 */
+		protected final void setSurfaceValue(int cell, int index) {
+			if (this.surface instanceof int[]) {
+				this.surface[cell] = index;
+				return;
+			}
+			if (this.offHeapSurface instanceof IntBuffer[]) {
+				this.offHeapSurface[cell >>> offHeapGridChunkShift].put(cell & ((1 << offHeapGridChunkShift) - 1), index + 1);
+				return;
+			}
+			int x = this.getCellX(cell);
+			int y = this.getCellY(cell);
+			int tileIndex = (y >> sparseGridTileShift) * this.tilesX + (x >> sparseGridTileShift);
+			int[] tile = this.tiles[tileIndex];
+			if (!(tile instanceof int[])) {
+				if (index < 0) {
+					return; //The grid cell is already free.
+				}
+				tile = new int[sparseGridTileSize * sparseGridTileSize];
+				this.tiles[tileIndex] = tile;
+			}
+			tile[((y & (sparseGridTileSize - 1)) << sparseGridTileShift) | (x & (sparseGridTileSize - 1))] = index + 1;
+		}
+		
+		
+		/**
+		 * Tells how many grid cells above a free grid cell are known to be
+		 * free without reading them, because they belong to the same tile of a
+		 * sparse grid, that never held a {@linkplain GridInstance}. Scans in
+		 * the y direction can skip them.
+		 * 
+		 * @param x x coordinate of the free grid cell
+		 * @param y y coordinate of the free grid cell
+		 * @return number of free grid cells above the grid cell in the same
+		 *         tile, 0 for a dense grid or a used tile.
+		 */
+		public final int getFreeCellsAbove(int x, int y) {
+			if (!(this.tiles instanceof int[][]) || !this.positionIsValid(x, y)) {
+				return 0;
+			}
+			if (this.tiles[(y >> sparseGridTileShift) * this.tilesX + (x >> sparseGridTileShift)] instanceof int[]) {
+				return 0;
+			}
+			return (y | (sparseGridTileSize - 1)) - y;
+		}
+		
+		
+		/**
+		 * Encodes a position on the grid as a grid cell index.
+		 * <p>
+		 * The position is not checked, use {@link #positionIsValid(int, int)}
+		 * before if necessary.
+		 * 
+		 * @param x x coordinate of the position
+		 * @param y y coordinate of the position
+		 * @return the index of the grid cell at the given position.
+		 */
+		public final int getCell(int x, int y) {
+			return y * this.xSize + x;
+		}
+		
+		
+		/**
+		 * Tells the x coordinate of a grid cell.
+		 * 
+		 * @param cell index of the grid cell
+		 * @return the x coordinate of the grid cell.
+		 * @see #getCell(int, int)
+		 */
+		public final int getCellX(int cell) {
+			return cell % this.xSize;
+		}
+		
+		
+		/**
+		 * Tells the y coordinate of a grid cell.
+		 * 
+		 * @param cell index of the grid cell
+		 * @return the y coordinate of the grid cell.
+		 * @see #getCell(int, int)
+		 */
+		public final int getCellY(int cell) {
+			return cell / this.xSize;
+		}
+		
+		
+		/**
+		 * Converts a grid cell index to a new {@linkplain Coordinate}.
+		 * 
+		 * @param cell index of the grid cell
+		 * @return the position of the grid cell as Coordinate or null, if
+		 *         {@code cell} is negative.
+		 */
+		public Coordinate getCellPosition(int cell) {
+			if (cell < 0) {
+				return null;
+			}
+			return new Coordinate(this.getCellX(cell), this.getCellY(cell));
 		}
 		
 		
@@ -2791,12 +3638,30 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			if (!(position instanceof Coordinate)) {
 				return false;
 			}
-			if (position.x >= 0 && position.x < this.xSize && position.y >= 0 && position.y < this.ySize) {
-				return true;
-			}
-			else {
-				return false;
-			}
+			return this.positionIsValid(position.x, position.y);
+		}
+		
+		
+		/**
+		 * Tells if a given position is a valid position on this grid.
+		 * 
+		 * @param x x coordinate of the position to be checked
+		 * @param y y coordinate of the position to be checked
+		 * @return true if the position is addressable, false otherwise.
+		 */
+		public final boolean positionIsValid(int x, int y) {
+			return x >= 0 && x < this.xSize && y >= 0 && y < this.ySize;
+		}
+		
+		
+		/**
+		 * Tells if a given grid cell index is a valid grid cell of this grid.
+		 * 
+		 * @param cell index of the grid cell to be checked
+		 * @return true if {@code cell} is addressable, false otherwise.
+		 */
+		public final boolean cellIsValid(int cell) {
+			return cell >= 0 && cell < this.xSize * this.ySize;
 		}
 		
 		
@@ -2813,7 +3678,20 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			if (!(position instanceof Coordinate) || !this.positionIsValid(position)) {
 				return false;
 			}
-			return this.surface[position.x][position.y] < 0;
+			return this.getSurfaceValue(this.getCell(position.x, position.y)) < 0;
+		}
+		
+		
+		/**
+		 * Tells if the given grid cell is available for storing a
+		 * {@linkplain GridInstance}. The {@code cell} must be valid.
+		 * 
+		 * @param cell index of the grid cell to be checked
+		 * @return true, if a GridInstance can be stored in {@code cell}, false
+		 *         if there is already a GridInstance.
+		 */
+		public final boolean cellHasFreeStorage(int cell) {
+			return this.getSurfaceValue(cell) < 0;
 		}
 		
 		
@@ -2829,7 +3707,20 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			if (!(position instanceof Coordinate) || !this.positionIsValid(position)) {
 				return false;
 			}
-			return this.surface[position.x][position.y] >= 0;
+			return this.getSurfaceValue(this.getCell(position.x, position.y)) >= 0;
+		}
+		
+		
+		/**
+		 * Tells if the given grid cell currently holds a
+		 * {@linkplain GridInstance} object. The {@code cell} must be valid.
+		 * 
+		 * @param cell index of the grid cell to be checked
+		 * @return true, if {@code cell} holds a GridInstance object, false
+		 *         otherwise.
+		 */
+		public final boolean cellHasGridInstance(int cell) {
+			return this.getSurfaceValue(cell) >= 0;
 		}
 		
 		
@@ -2893,112 +3784,211 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			if (!this.positionIsValid(position)) {
 				return null;
 			}
-			int index = this.surface[position.x][position.y];
+			return this.previewGridInstance(this.getCell(position.x, position.y));
+		}
+		
+		
+		/**
+		 * Returns the {@linkplain GridInstance} in the given grid cell, but does
+		 * not pick up the GridInstance from the grid.
+		 * 
+		 * @param cell index of the grid cell from where to preview the
+		 *        GridInstance
+		 * @return the GridInstance in this {@code cell} or null if no proper
+		 *         access to the GridInstance was possible.
+		 */
+		public GridInstance previewGridInstance(int cell) {
+			int index = this.previewGridInstanceIndex(cell);
 			if (index < 0) {
 				return null; //No proper access to the gridInstance was possible or no gridInstance here.
 			}
-			return new GridInstance(index, position);
+			return new GridInstance(index, this.getCellPosition(cell));
+		}
+		
+		
+		/**
+		 * Returns the index of the {@linkplain GridInstance} in the given grid
+		 * cell, but does not pick up the GridInstance from the grid.
+		 * <p>
+		 * This is the lightweight alternative to
+		 * {@link #previewGridInstance(int)} for the ants, as it does not
+		 * create a GridInstance object.
+		 * 
+		 * @param cell index of the grid cell from where to preview the
+		 *        GridInstance
+		 * @return the index of the GridInstance in this {@code cell} or -1 if
+		 *         there is no GridInstance or {@code cell} is not on the grid.
+		 */
+		public final int previewGridInstanceIndex(int cell) {
+			if (!this.cellIsValid(cell)) {
+				return -1;
+			}
+			return this.getSurfaceValue(cell);
 		}
 		
 		
 		/**
-		 * Pick up the {@linkplain GridInstance} from the given {@code position}.
+		 * Pick up the {@linkplain GridInstance} from the given grid cell.
 		 * <p>
 		 * The parameters are chosen like that to keep the method body small. In
 		 * parallel access this method must be likely locked, so a smaller
-		 * method body can lead to a faster unlock. Disadvantage is that the
-		 * parameters are not consistent among other methods of this class. The
-		 * parameters must have been validated before, this method omits the
-		 * check. The check is done by {@link #pickGridInstance(Coordinate)}.
+		 * method body can lead to a faster unlock. The parameters must have
+		 * been validated before, this method omits the check. The check is done
+		 * by {@link #pickGridInstanceIndex(int)}.
 		 * 
-		 * @param x x coordinate of the position from where to pick up a
+		 * @param cell index of the grid cell from where to pick up a
 		 *            GridInstance.
-		 * @param y y coordinate of the position from where to pick up a
-		 *            GridInstance.
-		 * @return the picked up GridInstance.
-		 * @see #pickGridInstance(Coordinate)
+		 * @return the index of the picked up GridInstance or -1 if there was
+		 *         none.
+		 * @see #pickGridInstanceIndex(int)
 		 */
-		protected final synchronized GridInstance doGridInstancePick(int x, int y) {
-			if (this.surface[x][y] < 0) {
-				return null;
+		protected final synchronized int doGridInstancePick(int cell) {
+			int index = this.getSurfaceValue(cell);
+			if (index < 0) {
+				return -1;
 			}
-			int index = this.surface[x][y];
-			this.surface[x][y] = -1;
-			this.gridInstances[index] = null;
-			return new GridInstance(index, new Coordinate(x, y));
+			this.setSurfaceValue(cell, -1);
+			this.gridInstances[index] = -1;
+			return index;
 		}
 		
 		
 		/**
 		 * Tells the grid to return the {@linkplain GridInstance} of the given {@code position} and to
 		 * remove it from there.
-		 * <p>
-		 * This method mainly checks the given parameters and then calls the
-		 * protected method {@link #doGridInstancePick(int, int)}, which executes the
-		 * actual pick up process.
 		 * 
 		 * @param position position on the grid from where to get the GridInstance.
 		 * @return the GridInstance from {@code position} or null on failure.
-		 * @see #doGridInstancePick(int, int)
+		 * @see #pickGridInstance(int)
 		 */
 		public GridInstance pickGridInstance(Coordinate position) {
 			if (!this.positionIsValid(position)) {
 				return null;
 			}
-			GridInstance gridInstance = this.doGridInstancePick(position.x, position.y);
-			//if (gridInstance instanceof GridInstance) {
-			//	this.debug_notifyPickUp(position);
+			return this.pickGridInstance(this.getCell(position.x, position.y));
+		}
+		
+		
+		/**
+		 * Tells the grid to return the {@linkplain GridInstance} of the given
+		 * grid cell and to remove it from there.
+		 * 
+		 * @param cell index of the grid cell from where to get the GridInstance.
+		 * @return the GridInstance from {@code cell} or null on failure.
+		 * @see #pickGridInstanceIndex(int)
+		 */
+		public GridInstance pickGridInstance(int cell) {
+			int index = this.pickGridInstanceIndex(cell);
+			if (index < 0) {
+				return null;
+			}
+			return new GridInstance(index, this.getCellPosition(cell));
+		}
+		
+		
+		/**
+		 * Tells the grid to return the index of the {@linkplain GridInstance}
+		 * of the given grid cell and to remove the GridInstance from there.
+		 * <p>
+		 * This method mainly checks the given parameters and then calls the
+		 * protected method {@link #doGridInstancePick(int)}, which executes the
+		 * actual pick up process.
+		 * 
+		 * @param cell index of the grid cell from where to get the GridInstance.
+		 * @return the index of the GridInstance from {@code cell} or -1 on
+		 *         failure.
+		 * @see #doGridInstancePick(int)
+		 */
+		public int pickGridInstanceIndex(int cell) {
+			if (!this.cellIsValid(cell)) {
+				return -1;
+			}
+			int index = this.doGridInstancePick(cell);
+			//if (index >= 0) {
+			//	this.debug_notifyPickUp(cell);
 			//}
-			return gridInstance;
+			return index;
 		}
 		
 		
 		/**
-		 * Drops the {@linkplain GridInstance} to the given {@code position}.
+		 * Drops the {@linkplain GridInstance} to the given grid cell.
 		 * <p>
 		 * The parameters are chosen like that to keep the method body small. In
 		 * parallel access this method must be likely locked, so a smaller
-		 * method body can lead to a faster unlock. Disadvantage is that the
-		 * parameters are not consistent among other methods of this class. The
-		 * parameters must have been validated before, this method omits the
-		 * check. The check is done by
-		 * {@link #dropGridInstance(GridInstance, Coordinate)}.
+		 * method body can lead to a faster unlock. The parameters must have
+		 * been validated before, this method omits the check. The check is done
+		 * by {@link #dropGridInstanceIndex(int, int)}.
 		 * 
 		 * @param index index of the GridInstance to drop
-		 * @param position where to drop the GridInstance with index {@code index}.
+		 * @param cell index of the grid cell where to drop the GridInstance
+		 *        with index {@code index}.
 		 * @return true on success, false otherwise.
-		 * @see #dropGridInstance(GridInstance, Coordinate)
+		 * @see #dropGridInstanceIndex(int, int)
 		 */
-		protected final synchronized boolean doGridInstanceDrop(int index, Coordinate position) { //The parameters must be valid and checked before! Keep the synchronized methods as small as possible to free the access to the grid soon.
-			if (!this.positionHasFreeStorage(position)) {
+		protected final synchronized boolean doGridInstanceDrop(int index, int cell) { //The parameters must be valid and checked before! Keep the synchronized methods as small as possible to free the access to the grid soon.
+			if (this.getSurfaceValue(cell) >= 0) {
 				return false; //Maybe another ant was faster with dropping an gridInstance at this position.  
 			}
-			this.surface[position.x][position.y] = index;
-			this.gridInstances[index] = position;
+			this.setSurfaceValue(cell, index);
+			this.gridInstances[index] = cell;
 			return true;
 		}
 		
 		
 		/**
 		 * Drops the given {@code gridInstance} to the {@code position} on the grid.
-		 * <p>
-		 * This method mainly checks the given parameters and then calls the
-		 * protected method {@link #doGridInstanceDrop(int, Coordinate)}, which executes
-		 * the actual drop down process.
 		 * 
 		 * @param gridInstance the GridInstance to be dropped to the grid.
 		 * @param position where to drop the {@code gridInstance} on the grid.
 		 * @return true, if the gridInstance was dropped successfully. False, if
 		 *         the gridInstance was not dropped for any reason.
-		 * @see #doGridInstanceDrop(int, Coordinate)
+		 * @see #dropGridInstance(GridInstance, int)
 		 */
 		public boolean dropGridInstance(GridInstance gridInstance, Coordinate position) {
 			if (!this.positionIsValid(position)) {
 				throw new IllegalArgumentException("Attempt to drop a grid instance outside of the grid! The Coordinate " + position.x + ", " + position.y + " is not on the grid.");
 			}
-			boolean success = this.doGridInstanceDrop(gridInstance.getIndexOfInstance(), position);
+			return this.dropGridInstance(gridInstance, this.getCell(position.x, position.y));
+		}
+		
+		
+		/**
+		 * Drops the given {@code gridInstance} to the given grid cell.
+		 * 
+		 * @param gridInstance the GridInstance to be dropped to the grid.
+		 * @param cell index of the grid cell where to drop the
+		 *        {@code gridInstance}.
+		 * @return true, if the gridInstance was dropped successfully. False, if
+		 *         the gridInstance was not dropped for any reason.
+		 * @see #dropGridInstanceIndex(int, int)
+		 */
+		public boolean dropGridInstance(GridInstance gridInstance, int cell) {
+			return this.dropGridInstanceIndex(gridInstance.getIndexOfInstance(), cell);
+		}
+		
+		
+		/**
+		 * Drops the {@linkplain GridInstance} with the given index to the given
+		 * grid cell.
+		 * <p>
+		 * This method mainly checks the given parameters and then calls the
+		 * protected method {@link #doGridInstanceDrop(int, int)}, which executes
+		 * the actual drop down process.
+		 * 
+		 * @param index index of the GridInstance to be dropped to the grid.
+		 * @param cell index of the grid cell where to drop the GridInstance.
+		 * @return true, if the GridInstance was dropped successfully. False, if
+		 *         the GridInstance was not dropped for any reason.
+		 * @see #doGridInstanceDrop(int, int)
+		 */
+		public boolean dropGridInstanceIndex(int index, int cell) {
+			if (!this.cellIsValid(cell)) {
+				throw new IllegalArgumentException("Attempt to drop a grid instance outside of the grid! The grid cell " + cell + " is not on the grid.");
+			}
+			boolean success = this.doGridInstanceDrop(index, cell);
 			//if (success) {
-			//	this.debug_notifyDrop(position);
+			//	this.debug_notifyDrop(cell);
 			//}
 			return success;
 		}
@@ -3010,14 +4000,12 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		 * @return {@link Coordinate} of a position on the grid that holds a GridInstance.
 		 */
 		public Coordinate getRandomGridInstancePosition() {
-			Coordinate position = null;
-			while (position == null && this.gridInstances.length > 0) { //Usually the first attempt should lead to a usable result.
+			int cell = -1;
+			while (cell < 0 && this.gridInstances.length > 0) { //Usually the first attempt should lead to a usable result.
 				int num = rand.nextInt(this.gridInstances.length);
-				if (this.gridInstances[num] instanceof Coordinate) {
-					position = new Coordinate(this.gridInstances[num]);
-				}
+				cell = this.gridInstances[num];
 			}
-			return (position instanceof Coordinate) ? position : null;
+			return this.getCellPosition(cell);
 		}
 		
 		
@@ -3052,15 +4040,16 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			attributes.add(1, new Attribute("y"));
 			Instances instances = new Instances("gridInstances", attributes, size);
 			for (int i = 0; i < size; i++) {
-				if (this.gridInstances[i] instanceof Coordinate) {
+				int cell = this.gridInstances[i];
+				if (cell >= 0) {
 					double[] attValues = new double[2];
-					attValues[0] = (double) this.gridInstances[i].x;
-					attValues[1] = (double) this.gridInstances[i].y;
+					attValues[0] = (double) this.getCellX(cell);
+					attValues[1] = (double) this.getCellY(cell);
 					instances.add(new DenseInstance(1.0, attValues));
 				}
 				else {
 					if (m_Debug) {
-						throw new RuntimeException("# ! Error in getAllGridInstancesAsDenseInstances: Position " + i + " of the internal gridInstances array does not contain a Coordinate.");
+						throw new RuntimeException("# ! Error in getAllGridInstancesAsDenseInstances: Position " + i + " of the internal gridInstances array does not contain a grid cell.");
 					}
 					double[] attValues = new double[2];
 					attValues[0] = 0.0;
@@ -3074,45 +4063,366 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		
 		/**
 		 * For statistical purposes. Tells the grid that an ant visited the
-		 * given {@code position}.
+		 * given grid cell.
 		 * 
-		 * @param position position where an ant was.
+		 * @param cell index of the grid cell where an ant was.
 		 */
-//		public void debug_notifyAntPresence(Coordinate position) {
-//			if (position instanceof Coordinate) {
-//				this.debug_antPresence[position.x][position.y]++;
+//		public void debug_notifyAntPresence(int cell) {
+//			if (this.cellIsValid(cell)) {
+//				this.debug_antPresence[cell]++;
 //			}
 //		}
 		
 		
 		/**
 		 * For statistical purposes. Tells the grid that an ant picked up a  
-		 * {@linkplain GridInstance} from the given {@code position}.
+		 * {@linkplain GridInstance} from the given grid cell.
 		 * 
-		 * @param position position where an ant picked up a GridInstance.
+		 * @param cell index of the grid cell where an ant picked up a GridInstance.
 		 */
-//		protected void debug_notifyPickUp(Coordinate position) {
-//			if (position instanceof Coordinate) {
-//				this.debug_pickUps[position.x][position.y]++;
+//		protected void debug_notifyPickUp(int cell) {
+//			if (this.cellIsValid(cell)) {
+//				this.debug_pickUps[cell]++;
 //			}
 //		}
 		
 		
 		/**
 		 * For statistical purposes. Tells the grid that an ant dropped a  
-		 * {@linkplain GridInstance} to the given {@code position}.
+		 * {@linkplain GridInstance} to the given grid cell.
 		 * 
-		 * @param position position where an ant dropped a GridInstance.
+		 * @param cell index of the grid cell where an ant dropped a GridInstance.
 		 */
-//		protected void debug_notifyDrop(Coordinate position) {
-//			if (position instanceof Coordinate) {
-//				this.debug_drops[position.x][position.y]++;
+//		protected void debug_notifyDrop(int cell) {
+//			if (this.cellIsValid(cell)) {
+//				this.debug_drops[cell]++;
 //			}
 //		}
 		
 	}
 	
 	
+	/**
+	 * Cache for the distances between pairs of instances.
+	 * <p>
+	 * When all pairs of instances fit into the cache, the distances are held
+	 * in a symmetric matrix, of which only the upper triangle is stored.
+	 * Otherwise the cache holds a bounded number of pairs and uses the clock
+	 * algorithm to evict pairs that were not used recently: the pairs are
+	 * organized in sets of {@link LFCluster#distanceCacheWays} entries, every
+	 * hit marks the entry as referenced, and when a new pair must be stored
+	 * the clock hand of the set passes the referenced entries, removing their
+	 * marks, until it finds an entry that was not referenced since the hand
+	 * passed it the last time.
+	 * <p>
+	 * The cache can be used by several ants in parallel. Distances are stored
+	 * as float values to save memory.
+	 */
+	protected class DistanceCache {
+		
+		/** Number of instances the cache is built for. */
+		protected int instancesNum;
+		
+		/** The upper triangle of the distance matrix, unknown distances are NaN. Null when the pairs do not fit into the cache. */
+		protected float[] matrix = null;
+		
+		/** Pairs of instance indexes stored in the sets, -1 marks a free entry. */
+		protected long[] keys = null;
+		
+		/** Distances belonging to {@link #keys}. */
+		protected float[] values = null;
+		
+		/** Reference marks belonging to {@link #keys}. */
+		protected boolean[] referenced = null;
+		
+		/** Position of the clock hand in each set. */
+		protected int[] hands = null;
+		
+		/** Bit mask to map a hash value to a set, the number of sets is a power of two. */
+		protected int setMask = 0;
+		
+		/** Locks guarding the sets. */
+		protected Object[] locks = null;
+		
+		/** How often a distance was found in the cache. */
+		protected LongAdder hits = new LongAdder();
+		
+		/** How often a distance was not found in the cache. */
+		protected LongAdder misses = new LongAdder();
+		
+		
+		/**
+		 * Constructs a new distance cache.
+		 * 
+		 * @param instancesNum number of instances in {@link LFCluster#data}
+		 * @param capacity maximum number of instance pairs to cache
+		 */
+		public DistanceCache(int instancesNum, int capacity) {
+			this.instancesNum = instancesNum;
+			long pairs = ((long) instancesNum * (instancesNum - 1)) / 2;
+			if (pairs <= capacity) {
+				this.matrix = new float[(int) pairs];
+				Arrays.fill(this.matrix, Float.NaN);
+			}
+			else {
+				int sets = Integer.highestOneBit(Math.max(capacity / distanceCacheWays, 1));
+				this.keys = new long[sets * distanceCacheWays];
+				this.values = new float[sets * distanceCacheWays];
+				this.referenced = new boolean[sets * distanceCacheWays];
+				this.hands = new int[sets];
+				this.setMask = sets - 1;
+				this.locks = new Object[Math.min(sets, distanceCacheLocks)];
+				for (int i = 0; i < this.locks.length; i++) {
+					this.locks[i] = new Object();
+				}
+				Arrays.fill(this.keys, -1L);
+			}
+		}
+		
+		
+		/**
+		 * Tells if this cache holds the full distance matrix.
+		 * 
+		 * @return true, if all instance pairs fit into this cache.
+		 */
+		public boolean isMatrix() {
+			return this.matrix != null;
+		}
+		
+		
+		/**
+		 * Tells the distance between two instances. The distance is taken from
+		 * the cache if possible, otherwise it is calculated and stored in the
+		 * cache.
+		 * 
+		 * @param first index of the first instance in {@link LFCluster#data}
+		 * @param second index of the second instance in {@link LFCluster#data}
+		 * @return the distance between both instances.
+		 */
+		public double distance(int first, int second) {
+			if (first == second) {
+				return calculateDistance(first, second);
+			}
+			int a = Math.min(first, second); //The distance is symmetric, so both orders share one entry.
+			int b = Math.max(first, second);
+			if (this.matrix != null) {
+				int index = (int) (((long) a * (2L * this.instancesNum - a - 1)) / 2 + (b - a - 1));
+				float cached = this.matrix[index];
+				if (!Float.isNaN(cached)) {
+					this.hits.increment();
+					return cached;
+				}
+				this.misses.increment();
+				float calculated = (float) calculateDistance(a, b);
+				this.matrix[index] = calculated; //Another ant may write the same value at the same time, which does no harm.
+				return calculated;
+			}
+			long key = ((long) a << 32) | b;
+			int set = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & this.setMask;
+			int offset = set * distanceCacheWays;
+			Object lock = this.locks[set % this.locks.length];
+			synchronized (lock) {
+				for (int i = offset; i < offset + distanceCacheWays; i++) {
+					if (this.keys[i] == key) {
+						this.referenced[i] = true;
+						this.hits.increment();
+						return this.values[i];
+					}
+				}
+			}
+			this.misses.increment();
+			float calculated = (float) calculateDistance(a, b); //Calculate outside of the lock, the calculation is the expensive part.
+			synchronized (lock) {
+				for (int i = offset; i < offset + distanceCacheWays; i++) {
+					if (this.keys[i] == key) {
+						return calculated; //Another ant was faster.
+					}
+				}
+				int hand = this.hands[set];
+				while (this.referenced[offset + hand]) {
+					this.referenced[offset + hand] = false;
+					hand = (hand + 1) % distanceCacheWays;
+				}
+				this.keys[offset + hand] = key;
+				this.values[offset + hand] = calculated;
+				this.referenced[offset + hand] = true;
+				this.hands[set] = (hand + 1) % distanceCacheWays;
+			}
+			return calculated;
+		}
+		
+		
+		/**
+		 * Tells how often a distance was found in this cache.
+		 * 
+		 * @return number of cache hits.
+		 */
+		public long getHits() {
+			return this.hits.sum();
+		}
+		
+		
+		/**
+		 * Tells how often a distance was not found in this cache.
+		 * 
+		 * @return number of cache misses.
+		 */
+		public long getMisses() {
+			return this.misses.sum();
+		}
+		
+	}
+	
+	
+	/**
+	 * Tells the distance between two instances in {@link LFCluster#data}
+	 * according to the distance function. The distance cache is used when it
+	 * is turned on.
+	 * 
+	 * @param first index of the first instance
+	 * @param second index of the second instance
+	 * @return the distance between both instances.
+	 * @see #optn_distanceCacheSize
+	 */
+	protected double distance(int first, int second) {
+		if (this.distanceCache instanceof DistanceCache) {
+			return this.distanceCache.distance(first, second);
+		}
+		return this.calculateDistance(first, second);
+	}
+	
+	
+	/**
+	 * Calculates the distance between two instances in {@link LFCluster#data}
+	 * without using the distance cache. When there is a
+	 * {@linkplain FeatureMatrix} for the distance function, the distance is
+	 * calculated with it, otherwise by the distance function itself.
+	 * 
+	 * @param first index of the first instance
+	 * @param second index of the second instance
+	 * @return the distance between both instances.
+	 */
+	protected double calculateDistance(int first, int second) {
+		if (this.featureMatrix instanceof FeatureMatrix) {
+			return this.featureMatrix.distance(first, second);
+		}
+		return optn_distanceFunction.distance(this.data.get(first), this.data.get(second));
+	}
+	
+	
+	/**
+	 * Executes the current ant cycle with several threads.
+	 * <p>
+	 * The ant for each of the {@link LFCluster#optn_antsCallPerAntCycle} ant
+	 * calls is drawn from {@link LFCluster#rand} like in a sequential ant
+	 * cycle. The calls are then made in rounds, see
+	 * {@link #runAntCallRounds(ExecutorService, int[], int)}, so the result
+	 * does not depend on how the threads are scheduled.
+	 * 
+	 * @param executor the thread pool to run the execution slots in
+	 * @param slots number of execution slots, at most as many as there are
+	 *        ants
+	 * @throws Exception if an ant call failed in one of the threads.
+	 */
+	protected void runAntCycleInParallel(ExecutorService executor, int slots) throws Exception {
+		int[] antCalls = new int[this.ants.length];
+		for (int i = 0; i < optn_antsCallPerAntCycle; i++) {
+			antCalls[rand.nextInt(this.ants.length)]++;
+		}
+		this.runAntCallRounds(executor, antCalls, slots);
+	}
+	
+	
+	/**
+	 * Executes the current ant cycle with one task per ant.
+	 * <p>
+	 * Each ant makes a fixed share of the
+	 * {@link LFCluster#optn_antsCallPerAntCycle} ant calls, the first ants
+	 * make one call more when the calls can not be shared evenly. The calls
+	 * are made in rounds, see
+	 * {@link #runAntCallRounds(ExecutorService, int[], int)}, each ant
+	 * deciding in its own task.
+	 * 
+	 * @param executor the thread pool to run the ants in, see
+	 *        {@link AntExecutors#newAntThreadExecutor(int)}
+	 * @throws Exception if an ant call failed in one of the threads.
+	 */
+	protected void runAntCycleWithAntThreads(ExecutorService executor) throws Exception {
+		int[] antCalls = new int[this.ants.length];
+		for (int k = 0; k < this.ants.length; k++) {
+			antCalls[k] = optn_antsCallPerAntCycle / this.ants.length + (k < optn_antsCallPerAntCycle % this.ants.length ? 1 : 0);
+		}
+		this.runAntCallRounds(executor, antCalls, this.ants.length);
+	}
+	
+	
+	/**
+	 * Makes the ant calls of the current ant cycle in rounds. In each round
+	 * every ant with calls left makes one call. First all these ants decide
+	 * on their work in parallel, while the grid is not changed, see
+	 * {@link Ant#propose(int)}. Then they carry out their work and walk one
+	 * after another in the order of their indexes, see {@link Ant#commit()}.
+	 * <p>
+	 * The grid an ant decides on and the order of the changes do not depend
+	 * on the threads, and each ant draws from its own random number stream.
+	 * So the assignments are bit-identical for a given seed, no matter how
+	 * many threads there are and how they are scheduled.
+	 * 
+	 * @param executor the thread pool to let the ants decide in
+	 * @param antCalls number of calls of each ant in this ant cycle
+	 * @param maxTasks how many tasks the deciding ants of a round are
+	 *        shared among at most
+	 * @throws Exception if an ant call failed in one of the threads.
+	 */
+	protected void runAntCallRounds(ExecutorService executor, int[] antCalls, int maxTasks) throws Exception {
+		final int antCycle = this.antCycles;
+		int numRounds = 0;
+		for (int i = 0; i < antCalls.length; i++) {
+			numRounds = Math.max(numRounds, antCalls[i]);
+		}
+		final int[] roundAnts = new int[this.ants.length];
+		ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>(Math.min(maxTasks, this.ants.length));
+		for (int round = 0; round < numRounds; round++) {
+			int numRoundAnts = 0;
+			for (int k = 0; k < antCalls.length; k++) {
+				if (antCalls[k] > round) {
+					roundAnts[numRoundAnts] = k;
+					numRoundAnts++;
+				}
+			}
+			final int numAnts = numRoundAnts;
+			final int numTasks = Math.min(maxTasks, numAnts);
+			tasks.clear();
+			for (int t = 0; t < numTasks; t++) {
+				final int task = t;
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() {
+						for (int i = task; i < numAnts; i += numTasks) {
+							ants[roundAnts[i]].propose(antCycle);
+						}
+						return null;
+					}
+				});
+			}
+			for (Future<Object> future : executor.invokeAll(tasks)) {
+				try {
+					future.get();
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+			}
+			for (int i = 0; i < numAnts; i++) {
+				this.ants[roundAnts[i]].commit();
+			}
+		}
+	}
+	
+	
 	/**
 	 * Builds the clusterer with the given {@link weka.core.Instances}.
 	 * 
@@ -3135,7 +4445,7 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		this.data = new Instances(data);
 		this.data.compactify();
 		this.data.setClassIndex(-1);
-		this.grid = new Grid(optn_gridSizeX, optn_gridSizeY, dataSize);
+		this.grid = new Grid(optn_gridSizeX, optn_gridSizeY, dataSize, optn_sparseGrid, optn_offHeapGrid, optn_offHeapGridFile);
 		this.ants = new Ant[optn_antsNum];
 		this.antCycles = 0;
 		this.replaceMissingValuesFilter = new ReplaceMissingValues();
@@ -3149,6 +4459,19 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 			this.data = Filter.useFilter(this.data, this.replaceMissingValuesFilter);
 		}
 		
+		this.featureMatrix = FeatureMatrix.forDistanceFunction(this.data, optn_distanceFunction);
+		if (m_Debug && this.featureMatrix instanceof FeatureMatrix) { System.out.println("# Calculating distances on a feature matrix."); }
+		
+		this.distanceCache = null;
+		this.out_distanceCacheMode = null;
+		this.out_distanceCacheHits = 0;
+		this.out_distanceCacheMisses = 0;
+		if (optn_distanceCacheSize > 0) {
+			this.distanceCache = new DistanceCache(dataSize, optn_distanceCacheSize);
+			this.out_distanceCacheMode = this.distanceCache.isMatrix() ? "distance matrix" : "recently used pairs";
+			if (m_Debug) { System.out.println("# Caching distances using a " + this.out_distanceCacheMode + " cache."); }
+		}
+		
 		if (m_Debug) { System.out.println("# Preparing the grid."); }
 		if (optn_gridSizeX < gridMinSize || optn_gridSizeY < gridMinSize) {
 			throw new IllegalArgumentException("The grid can not be used, because a grid smaller than the minimum grid size of " + gridMinSize + " is not allowed.");
@@ -3198,13 +4521,43 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		}
 		
 		if (m_Debug) { System.out.println("# Start ant clustering."); }
-		for (this.antCycles = 1; this.antCycles <= optn_antCycles; this.antCycles++) { //Use natural count of ant cycles (=the first one is 1).
-			for (int i = 0; i < optn_antsCallPerAntCycle; i++) {
-				Ant ant = this.ants[rand.nextInt(this.ants.length)];
-				ant.call(this.antCycles);
+		ExecutorService executor = null;
+		int executionSlots = Math.min(optn_numExecutionSlots, this.ants.length);
+		boolean antThreads = optn_executionEngine == tag_executionEngineAntThreads;
+		SplittableRandom antRandoms = new SplittableRandom(getSeed());
+		for (int i = 0; i < this.ants.length; i++) { //Split in the order of the ants, so each ant gets the same stream for the same seed.
+			this.ants[i].setRandom(antRandoms.split());
+		}
+		if (antThreads) {
+			if (m_Debug) { System.out.println("#   Running each ant in its own " + (AntExecutors.supportsVirtualThreads() ? "virtual thread." : "task in " + optn_numExecutionSlots + " execution slots.")); }
+			executor = AntExecutors.newAntThreadExecutor(optn_numExecutionSlots);
+		}
+		else if (executionSlots > 1) {
+			if (m_Debug) { System.out.println("#   Calling ants in " + executionSlots + " execution slots."); }
+			executor = Executors.newFixedThreadPool(executionSlots);
+		}
+		try {
+			for (this.antCycles = 1; this.antCycles <= optn_antCycles; this.antCycles++) { //Use natural count of ant cycles (=the first one is 1).
+				if (antThreads) {
+					this.runAntCycleWithAntThreads(executor);
+				}
+				else if (executor instanceof ExecutorService) {
+					this.runAntCycleInParallel(executor, executionSlots);
+				}
+				else {
+					for (int i = 0; i < optn_antsCallPerAntCycle; i++) {
+						Ant ant = this.ants[rand.nextInt(this.ants.length)];
+						ant.call(this.antCycles);
+					}
+				}
+				if (m_Debug && this.antCycles % debug_verboseEveryAntCyclesPassed == 0) { // When there is much to do this gives an notification that the algorithm is still running.
+					System.out.println("#   Finished ant cycle " + this.antCycles + ".");
+				}
 			}
-			if (m_Debug && this.antCycles % debug_verboseEveryAntCyclesPassed == 0) { // When there is much to do this gives an notification that the algorithm is still running.
-				System.out.println("#   Finished ant cycle " + this.antCycles + ".");
+		}
+		finally {
+			if (executor instanceof ExecutorService) {
+				executor.shutdownNow();
 			}
 		}
 		if (m_Debug && (this.antCycles - 1) % debug_verboseEveryAntCyclesPassed != 0) {
@@ -3217,6 +4570,12 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 		}
 		
 		if (m_Debug) { System.out.println("# Cleanup after ant clustering."); }
+		if (this.distanceCache instanceof DistanceCache) {
+			this.out_distanceCacheHits = this.distanceCache.getHits();
+			this.out_distanceCacheMisses = this.distanceCache.getMisses();
+			this.distanceCache = null;
+		}
+		this.featureMatrix = null;
 		optn_distanceFunction.clean();
 		Instances gridInstances = this.grid.getAllGridInstancesAsDenseInstances();
 		if (gridInstances.size() != this.data.size()) {
@@ -3312,6 +4671,14 @@ public class LFCluster extends RandomizableClusterer implements TechnicalInforma
 	public String toString() {
 		StringBuffer temp = new StringBuffer();
 		temp.append("Hint: It is recommended to turn normalization off for the distance function used to calculate the local similarity as intended by Lumer/Faieta. Otherwise adjust the value for Alpha.");
+		if (this.out_distanceCacheMode != null) {
+			long lookups = this.out_distanceCacheHits + this.out_distanceCacheMisses;
+			temp.append("\n\nDistance cache (" + this.out_distanceCacheMode + "): " + this.out_distanceCacheHits + " hits, " + this.out_distanceCacheMisses + " misses");
+			if (lookups > 0) {
+				temp.append(", hit rate " + Math.round((1000.0 * this.out_distanceCacheHits) / lookups) / 10.0 + "%");
+			}
+			temp.append(".");
+		}
 		temp.append("\n\n= Output of the grid clusterer: =\n\n");
 		temp.append(this.out_gridClustererResults);
 		return temp.toString();
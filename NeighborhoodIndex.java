@@ -0,0 +1,250 @@
+package weka.clusterers;
+
+import java.util.Arrays;
+
+
+/**
+ * Index over a set of instances, that answers range queries: which instances
+ * are within a given distance around an instance.
+ * <p>
+ * The instances are addressed by their indexes in the
+ * {@link weka.core.Instances} the index was built for. An index is built once
+ * and not changed afterwards, so it can be queried by several threads at the
+ * same time, as long as each thread uses its own {@linkplain Result}.
+ * 
+ * @version 0.9
+ * @author Christoph
+ * @see KDTreeNeighborhoodIndex
+ * @see VPTreeNeighborhoodIndex
+ */
+public abstract class NeighborhoodIndex {
+	
+	/** Number of instances a leaf of a tree holds maximum. Leaves are scanned linearly. */
+	static final int leafSize = 16;
+	
+	/**
+	 * Relative slack for pruning branches of a tree. Distances are rounded, so
+	 * branches are only skipped when they are beyond the range by more than
+	 * this fraction of the range. Whether an instance is within the range is
+	 * decided by its exact distance anyway.
+	 */
+	static final double pruneSlack = 1e-9;
+	
+	
+	/**
+	 * Distance between two instances addressed by their indexes.
+	 */
+	public interface Metric {
+		
+		/**
+		 * Tells the distance between two instances.
+		 * 
+		 * @param first index of the first instance
+		 * @param second index of the second instance
+		 * @return the distance between both instances.
+		 */
+		double distance(int first, int second);
+		
+	}
+	
+	
+	/**
+	 * Reusable buffer for the result of a range query, holding the indexes of
+	 * the found instances and their distances to the queried instance.
+	 */
+	public static class Result {
+		
+		/** Indexes of the found instances. */
+		protected int[] IDs = new int[64];
+		
+		/** Distances of the found instances, belonging to {@link #IDs}. */
+		protected double[] distances = new double[64];
+		
+		/** Number of found instances. */
+		protected int size = 0;
+		
+		/** Stack of tree nodes still to visit, used by the tree indexes. */
+		protected int[] stack = new int[64];
+		
+		/** Scratch buffer for the sort keys of {@link #sortByID()}. */
+		protected long[] sortKeys = new long[64];
+		
+		/** Second buffer for {@link #IDs}, {@link #sortByID()} swaps both. */
+		protected int[] spareIDs = new int[64];
+		
+		/** Second buffer for {@link #distances}, {@link #sortByID()} swaps both. */
+		protected double[] spareDistances = new double[64];
+		
+		
+		/**
+		 * Removes all found instances.
+		 */
+		public void clear() {
+			this.size = 0;
+		}
+		
+		
+		/**
+		 * Adds a found instance.
+		 * 
+		 * @param ID index of the instance
+		 * @param distance distance to the queried instance
+		 */
+		public void add(int ID, double distance) {
+			if (this.size == this.IDs.length) {
+				this.IDs = Arrays.copyOf(this.IDs, this.size * 2);
+				this.distances = Arrays.copyOf(this.distances, this.size * 2);
+			}
+			this.IDs[this.size] = ID;
+			this.distances[this.size] = distance;
+			this.size++;
+		}
+		
+		
+		/**
+		 * Tells the number of found instances.
+		 * 
+		 * @return number of found instances.
+		 */
+		public int size() {
+			return this.size;
+		}
+		
+		
+		/**
+		 * Tells the index of a found instance.
+		 * 
+		 * @param i position in this result
+		 * @return index of the instance.
+		 */
+		public int getID(int i) {
+			return this.IDs[i];
+		}
+		
+		
+		/**
+		 * Tells the distance of a found instance to the queried instance.
+		 * 
+		 * @param i position in this result
+		 * @return distance of the instance.
+		 */
+		public double getDistance(int i) {
+			return this.distances[i];
+		}
+		
+		
+		/**
+		 * Orders the found instances by their indexes, which is the order a
+		 * linear scan over the instances finds them in. The scratch buffers of
+		 * this result are reused, so no arrays are allocated once they are
+		 * large enough.
+		 */
+		public void sortByID() {
+			if (this.sortKeys.length < this.size) {
+				this.sortKeys = new long[this.IDs.length];
+			}
+			long[] keys = this.sortKeys;
+			for (int i = 0; i < this.size; i++) {
+				keys[i] = ((long) this.IDs[i] << 32) | i;
+			}
+			Arrays.sort(keys, 0, this.size);
+			if (this.spareIDs.length < this.IDs.length) {
+				this.spareIDs = new int[this.IDs.length];
+				this.spareDistances = new double[this.distances.length];
+			}
+			int[] IDs = this.spareIDs;
+			double[] distances = this.spareDistances;
+			for (int i = 0; i < this.size; i++) {
+				int from = (int) keys[i];
+				IDs[i] = this.IDs[from];
+				distances[i] = this.distances[from];
+			}
+			this.spareIDs = this.IDs;
+			this.spareDistances = this.distances;
+			this.IDs = IDs;
+			this.distances = distances;
+		}
+		
+		
+		/**
+		 * Pushes a tree node on the stack of nodes to visit.
+		 * 
+		 * @param node the node to push
+		 * @param depth current size of the stack
+		 * @return the new size of the stack.
+		 */
+		protected int push(int node, int depth) {
+			if (depth == this.stack.length) {
+				this.stack = Arrays.copyOf(this.stack, depth * 2);
+			}
+			this.stack[depth] = node;
+			return depth + 1;
+		}
+		
+	}
+	
+	
+	/**
+	 * Finds all instances whose distance to the instance {@code query} is not
+	 * greater than {@code radius}. The instance {@code query} itself is
+	 * included in the result. The found instances are in no specific order.
+	 * 
+	 * @param query index of the instance to search around
+	 * @param radius the range to search in
+	 * @param result buffer to write the found instances to, it is cleared
+	 *        first
+	 */
+	public abstract void rangeQuery(int query, double radius, Result result);
+	
+	
+	/**
+	 * Rearranges {@code IDs} between {@code from} and {@code to}, so that the
+	 * instance at {@code nth} has the key it would have if the range was
+	 * sorted by {@code keys}, no instance before it has a greater key and no
+	 * instance after it has a smaller key.
+	 * 
+	 * @param IDs instance indexes to rearrange
+	 * @param keys keys belonging to the positions of {@code IDs}, rearranged
+	 *        with them
+	 * @param from first position of the range
+	 * @param to position after the last position of the range
+	 * @param nth position to select the instance for
+	 */
+	protected static void select(int[] IDs, double[] keys, int from, int to, int nth) {
+		int left = from;
+		int right = to - 1;
+		while (left < right) {
+			double pivot = keys[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (keys[i] < pivot) {
+					i++;
+				}
+				while (keys[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					double key = keys[i];
+					keys[i] = keys[j];
+					keys[j] = key;
+					int ID = IDs[i];
+					IDs[i] = IDs[j];
+					IDs[j] = ID;
+					i++;
+					j--;
+				}
+			}
+			if (nth <= j) {
+				right = j;
+			}
+			else if (nth >= i) {
+				left = i;
+			}
+			else {
+				return;
+			}
+		}
+	}
+	
+}
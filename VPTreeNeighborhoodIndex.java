@@ -0,0 +1,164 @@
+package weka.clusterers;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * {@linkplain NeighborhoodIndex} organizing instances in a vantage point tree.
+ * <p>
+ * Each inner node picks one of its instances as vantage point and splits the
+ * other instances at the median of their distances to it: the inner child
+ * holds the instances up to the median distance, the outer child those
+ * beyond. By the triangle inequality a range query only needs to visit the
+ * inner child when the queried instance is not farther than the range outside
+ * of the median, and the outer child when it is not farther than the range
+ * inside of it. The tree only relies on the distances between instances, so it
+ * can be used with every distance function that is a metric.
+ * 
+ * @version 0.9
+ * @author Christoph
+ */
+public class VPTreeNeighborhoodIndex extends NeighborhoodIndex {
+	
+	/** The distance between the indexed instances. */
+	protected final Metric metric;
+	
+	/** Instance indexes, each node covers a range of them. */
+	protected final int[] IDs;
+	
+	/** First position in {@link #IDs} covered by each node. For inner nodes this is the position of the vantage point. */
+	protected int[] nodeFrom;
+	
+	/** Position after the last position in {@link #IDs} covered by each node. */
+	protected int[] nodeTo;
+	
+	/** Median distance to the vantage point of each node, NaN for leaves. */
+	protected double[] nodeRadius;
+	
+	/** Inner child of each node. */
+	protected int[] nodeInner;
+	
+	/** Outer child of each node, -1 if there are no instances beyond the median. */
+	protected int[] nodeOuter;
+	
+	/** Number of nodes. */
+	protected int numNodes = 0;
+	
+	
+	/**
+	 * Builds a vantage point tree over instances.
+	 * 
+	 * @param numInstances number of instances to index, they are addressed by
+	 *        the indexes 0 to {@code numInstances - 1}
+	 * @param metric the distance between the instances
+	 * @param seed seed for choosing the vantage points
+	 */
+	public VPTreeNeighborhoodIndex(int numInstances, Metric metric, long seed) {
+		this.metric = metric;
+		this.IDs = new int[numInstances];
+		for (int i = 0; i < numInstances; i++) {
+			this.IDs[i] = i;
+		}
+		int capacity = Math.max(1, 4 * (numInstances / leafSize) + 1);
+		this.nodeFrom = new int[capacity];
+		this.nodeTo = new int[capacity];
+		this.nodeRadius = new double[capacity];
+		this.nodeInner = new int[capacity];
+		this.nodeOuter = new int[capacity];
+		double[] keys = new double[numInstances];
+		this.build(0, numInstances, keys, new Random(seed));
+	}
+	
+	
+	/**
+	 * Builds the node covering a range of {@link #IDs} and its children.
+	 * 
+	 * @param from first position of the range
+	 * @param to position after the last position of the range
+	 * @param keys buffer for the distances to the vantage point
+	 * @param random random number generator for choosing the vantage point
+	 * @return the index of the node.
+	 */
+	protected int build(int from, int to, double[] keys, Random random) {
+		int node = this.numNodes;
+		if (node == this.nodeFrom.length) {
+			int capacity = node * 2;
+			this.nodeFrom = Arrays.copyOf(this.nodeFrom, capacity);
+			this.nodeTo = Arrays.copyOf(this.nodeTo, capacity);
+			this.nodeRadius = Arrays.copyOf(this.nodeRadius, capacity);
+			this.nodeInner = Arrays.copyOf(this.nodeInner, capacity);
+			this.nodeOuter = Arrays.copyOf(this.nodeOuter, capacity);
+		}
+		this.numNodes++;
+		this.nodeFrom[node] = from;
+		this.nodeTo[node] = to;
+		this.nodeRadius[node] = Double.NaN;
+		if (to - from <= leafSize) {
+			return node;
+		}
+		int vantage = from + random.nextInt(to - from);
+		int ID = this.IDs[from];
+		this.IDs[from] = this.IDs[vantage];
+		this.IDs[vantage] = ID;
+		int vantagePoint = this.IDs[from];
+		for (int i = from + 1; i < to; i++) {
+			keys[i] = this.metric.distance(vantagePoint, this.IDs[i]);
+		}
+		int middle = (from + 1 + to) >>> 1;
+		select(this.IDs, keys, from + 1, to, middle);
+		this.nodeRadius[node] = keys[middle];
+		int inner = this.build(from + 1, middle + 1, keys, random);
+		int outer = middle + 1 < to ? this.build(middle + 1, to, keys, random) : -1;
+		this.nodeInner[node] = inner;
+		this.nodeOuter[node] = outer;
+		return node;
+	}
+	
+	
+	@Override
+	public void rangeQuery(int query, double radius, Result result) {
+		result.clear();
+		double bound = radius + radius * pruneSlack;
+		int depth = result.push(0, 0);
+		while (depth > 0) {
+			depth--;
+			int node = result.stack[depth];
+			double median = this.nodeRadius[node];
+			if (Double.isNaN(median)) {
+				for (int i = this.nodeFrom[node]; i < this.nodeTo[node]; i++) {
+					int ID = this.IDs[i];
+					double distance = this.metric.distance(query, ID);
+					if (distance <= radius) {
+						result.add(ID, distance);
+					}
+				}
+				continue;
+			}
+			int vantagePoint = this.IDs[this.nodeFrom[node]];
+			double distance = this.metric.distance(query, vantagePoint);
+			if (distance <= radius) {
+				result.add(vantagePoint, distance);
+			}
+			if (distance - bound <= median + median * pruneSlack) {
+				depth = result.push(this.nodeInner[node], depth);
+			}
+			if (this.nodeOuter[node] >= 0 && distance + bound >= median - median * pruneSlack) {
+				depth = result.push(this.nodeOuter[node], depth);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Returns a string representation of this object.
+	 * 
+	 * @return a string representing this object.
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "[vptree:" + this.IDs.length + "," + this.numNodes + "]";
+	}
+	
+}